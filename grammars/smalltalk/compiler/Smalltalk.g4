@@ -5,6 +5,34 @@ import org.antlr.symtab.*;
 import smalltalk.compiler.symbols.*;
 }
 
+@lexer::members {
+/** The ASSIGN half of the last ID_ASSIGN, returned by the next nextToken() */
+protected Token pendingAssign;
+
+/** Split x:= into ID x and ASSIGN := so the parser sees the same tokens as
+ *  for x := with whitespace.
+ */
+@Override
+public Token nextToken() {
+	if ( pendingAssign!=null ) {
+		Token t = pendingAssign;
+		pendingAssign = null;
+		return t;
+	}
+	Token t = super.nextToken();
+	if ( t.getType()==ID_ASSIGN ) {
+		int start = t.getStartIndex();
+		int stop = t.getStopIndex();
+		int idLength = stop - start - 1; // all but ':='
+		pendingAssign = _factory.create(_tokenFactorySourcePair, ASSIGN, null, t.getChannel(),
+		                                stop-1, stop, t.getLine(), t.getCharPositionInLine()+idLength);
+		t = _factory.create(_tokenFactorySourcePair, ID, null, t.getChannel(),
+		                    start, stop-2, t.getLine(), t.getCharPositionInLine());
+	}
+	return t;
+}
+}
+
 file: classDef* main EOF ;
 
 classDef returns [STClass scope]
@@ -46,7 +74,7 @@ body:	localVars? stat ('.' stat)* '.'?	# FullBody
     |  	localVars?							# EmptyBody
     ;
 
-stat:	lvalue ':=' messageExpression		# Assign
+stat:	lvalue ASSIGN messageExpression		# Assign
 	|	'^' messageExpression				# Return
 	|	messageExpression					# SendMessage
 	;
@@ -59,9 +87,12 @@ messageExpression
 	:	keywordExpression
 	;
 
+/** A KeywordSend without keywords is just its binaryExpression. Factoring
+    the receiver out of separate pass-through and send alternatives lets
+    the parser choose with one token instead of scanning the receiver.
+ */
 keywordExpression
-	:	recv=binaryExpression 										# PassThrough
-	|	recv=binaryExpression ( KEYWORD args+=binaryExpression )+	# KeywordSend
+	:	recv=binaryExpression ( KEYWORD args+=binaryExpression )*	# KeywordSend
 	|	'super' ( KEYWORD args+=binaryExpression )+					# SuperKeywordSend
 	;
 
@@ -73,10 +104,8 @@ binaryExpression
     The only restriction is that the second character cannot be a minus sign."
     BlueBlook p 49 in pdf.
 */
-bop : opchar
-    | opchar opchar
-    | '-'
-    | '-' opchar
+bop : opchar opchar?
+    | '-' opchar?
     ;
 
 opchar
@@ -122,9 +151,16 @@ TRUE   : 'true' ;
 FALSE  : 'false' ;
 
 KEYWORD
-	:	ID ':' {getInputStream().LA(1)!='='}?
+	:	ID ':'
 	;
 
+/** x:= would otherwise lex as KEYWORD x: then '='; nextToken() splits it */
+ID_ASSIGN
+	:	ID ':='
+	;
+
+ASSIGN : ':=' ;
+
 ID  :	[a-zA-Z_] [a-zA-Z_0-9]*
     ;
 
@@ -141,9 +177,7 @@ CHAR:	'$' ~('@'|'\n'|'\t'|' ') ;
 WS	:	(' '|'\t'|'\n')+ -> channel(HIDDEN) ;
 
 NUMBER
-	:	'-' NUMBER
-	|	[0-9]+
-	|	[0-9]+ '.' [0-9]+
+	:	'-'? [0-9]+ ('.' [0-9]+)?
 	;
 
 STRING : '\'' ('\'\'' | ~'\'')* '\'' ;
@@ -4,7 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class Bytecode {
-	public static final int MAX_OPNDS = 3; // Or single opnd indicating variable number
+	public static final int MAX_OPNDS = 4; // Or single opnd indicating variable number
 
 	public static int combineLineCharPos(int line, int charPos) {
 		return line << 8 | charPos & 0xFF;
@@ -40,10 +40,14 @@ public class Bytecode {
 			this(name,a,b,OperandType.NONE); n=2;
 		}
 		public Instruction(String name, OperandType a, OperandType b, OperandType c) {
+			this(name,a,b,c,OperandType.NONE); n=3;
+		}
+		public Instruction(String name, OperandType a, OperandType b, OperandType c, OperandType d) {
 			this.name = name;
 			type[0] = a;
 			type[1] = b;
 			type[2] = c;
+			type[3] = d;
 			n = MAX_OPNDS;
 		}
 	}
@@ -77,6 +81,26 @@ public class Bytecode {
 
 	public static final short DBG					= 30;
 
+	/** A send whose result the current method or block returns right away
+	 *  (see {@link #rewriteTailSends}). The VM can reuse the current frame
+	 *  for the invoked method, so a copying block created in it must hold
+	 *  copies of the outer values it reads rather than point at the frame;
+	 *  see {@link smalltalk.compiler.symbols.STCompiledBlock#contextEscapes}. A primitive that evaluates a block as its
+	 *  result, such as Boolean_IFTRUE, should likewise evaluate the block in
+	 *  place of the tail send so that Integer>>to:do: iterates in constant
+	 *  frames.
+	 */
+	public static final short TAIL_SEND				= 31;
+
+	/** A send whose selector only one class implements, found by
+	 *  {@link Devirtualizer}. Operands are nargs, selector, that class's
+	 *  name and the index of the method in the class's "methods" array. If
+	 *  the receiver's class is exactly that class, the VM can invoke the
+	 *  method without a lookup; otherwise, or if the index is 0xFFFF (-1),
+	 *  it must do a normal send of the selector.
+	 */
+	public static final short SEND_DIRECT			= 32;
+
 	/** Used for disassembly; describes instruction set */
 	public static final Instruction[] instructions = new Instruction[] {
 		null, // <INVALID>
@@ -108,8 +132,134 @@ public class Bytecode {
 		new Instruction("return"),
 
 		new Instruction("dbg", OperandType.LITERAL, OperandType.DBG_LOCATION), // filename, line:charpos in file
+		new Instruction("tail_send", OperandType.SHORT, OperandType.LITERAL),
+		new Instruction("send_direct", OperandType.SHORT, OperandType.LITERAL, OperandType.LITERAL, OperandType.SHORT),
 	};
 
+	/** Return the number of bytes, opcode included, taken by an instruction */
+	public static int sizeOfInstruction(int opcode) {
+		Instruction I = instructions[opcode];
+		if ( I==null ) {
+			throw new IllegalArgumentException("no such instruction "+opcode);
+		}
+		int size = 1;
+		for (int i=0; i<I.n; i++) {
+			size += I.type[i].sizeInBytes;
+		}
+		return size;
+	}
+
+	public static boolean isSend(int opcode) {
+		return opcode==SEND || opcode==SEND_SUPER || opcode==TAIL_SEND || opcode==SEND_DIRECT;
+	}
+
+	/** Turn each SEND followed only by dbg instructions and a RETURN, or
+	 *  a BLOCK_RETURN if inBlock, into a TAIL_SEND, in place, and return
+	 *  how many there were. Super sends are left alone. A RETURN within a
+	 *  block is a ^ out of the home method, not a tail position. The caller
+	 *  must not do this for a block whose context can outlive it, such as
+	 *  one creating a block that does ^, since the VM would reuse its frame.
+	 */
+	public static int rewriteTailSends(byte[] bytecode, boolean inBlock) {
+		int ret = inBlock ? BLOCK_RETURN : RETURN;
+		int n = 0;
+		int ip = 0;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			int next = ip + sizeOfInstruction(bytecode[ip]);
+			if ( bytecode[ip]==SEND ) {
+				int after = next;
+				while ( after<bytecode.length && bytecode[after]==DBG ) {
+					after += sizeOfInstruction(DBG);
+				}
+				if ( after<bytecode.length && bytecode[after]==ret ) {
+					bytecode[ip] = TAIL_SEND;
+					n++;
+				}
+			}
+			ip = next;
+		}
+		return n;
+	}
+
+	/** Return the address of every send instruction within bytecode, in
+	 *  order of appearance. The index of an address within the returned
+	 *  array is the inline cache slot for that send site.
+	 */
+	public static int[] sendSites(byte[] bytecode) {
+		int n = 0;
+		int ip = 0;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			if ( isSend(bytecode[ip]) ) n++;
+			ip += sizeOfInstruction(bytecode[ip]);
+		}
+		int[] sites = new int[n];
+		n = 0;
+		ip = 0;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			if ( isSend(bytecode[ip]) ) sites[n++] = ip;
+			ip += sizeOfInstruction(bytecode[ip]);
+		}
+		return sites;
+	}
+
+	/** Return how many elements the instruction at ip adds to (positive) or
+	 *  removes from (negative) the operand stack.
+	 */
+	public static int stackEffect(byte[] bytecode, int ip) {
+		int opcode = bytecode[ip];
+		switch ( opcode ) {
+			case NIL :
+			case SELF :
+			case TRUE :
+			case FALSE :
+			case PUSH_CHAR :
+			case PUSH_INT :
+			case PUSH_FLOAT :
+			case PUSH_FIELD :
+			case PUSH_LOCAL :
+			case PUSH_LITERAL :
+			case PUSH_GLOBAL :
+			case BLOCK :
+				return 1;
+			case PUSH_ARRAY : // pops n elements, pushes the array
+				return 1 - getShort(bytecode, ip+1);
+			case STORE_FIELD : // stores leave the value on the stack
+			case STORE_LOCAL :
+			case DBG :
+				return 0;
+			case POP :
+			case BLOCK_RETURN :
+			case RETURN :
+				return -1;
+			case SEND : // pops receiver and nargs arguments, pushes result
+			case SEND_SUPER :
+			case TAIL_SEND :
+			case SEND_DIRECT :
+				return -getShort(bytecode, ip+1);
+			default :
+				throw new IllegalArgumentException("no such instruction "+opcode+" at address "+ip);
+		}
+	}
+
+	/** Return the maximum depth of the operand stack while executing
+	 *  bytecode. There are no branches, so we simulate the instructions in
+	 *  order up to the first return; anything after it is dead code that
+	 *  the code generator emits as a failsafe.
+	 */
+	public static int maxStackDepth(byte[] bytecode) {
+		int depth = 0;
+		int max = 0;
+		int ip = 0;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			int opcode = bytecode[ip];
+			depth += stackEffect(bytecode, ip);
+			max = Math.max(max, depth);
+			if ( opcode==RETURN || opcode==BLOCK_RETURN ) break;
+			ip += sizeOfInstruction(opcode);
+		}
+		return max;
+	}
+
 	public static String disassemble(String blkName, byte[] bytecode, String[] literals, int start) {
 		StringBuilder buf = new StringBuilder();
 		int i=start;
@@ -0,0 +1,146 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.Scope;
+import org.antlr.symtab.Symbol;
+import org.antlr.symtab.VariableSymbol;
+import smalltalk.compiler.symbols.STBlock;
+import smalltalk.compiler.symbols.STField;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/** Classify each [...] block as clean, copying, or full; see {@link STBlock.Kind}.
+ *  Relies on the symbol references set by {@link ResolveSymbols}.
+ *
+ *  A reference to a variable defined outside of the current block is an
+ *  outer reference for every block between the reference and the
+ *  variable's scope. References to self, super, or fields are outer
+ *  references to the receiver for every block up to the method. We can
+ *  only decide whether an outer read is copyable once we've seen every
+ *  assignment in the file, so classification happens in exitFile.
+ *
+ *  Symbols compare equal by name, so we track them by identity; e.g.,
+ *  every method named size has a block named size-block0.
+ */
+public class ClassifyBlocks extends SetScope {
+	protected final List<STBlock> blocks = new ArrayList<>();
+	protected final Map<STBlock, Set<VariableSymbol>> outerReads = new IdentityHashMap<>();
+	protected final Set<STBlock> full = identitySet();
+	protected final Set<STBlock> refsSelf = identitySet();
+	protected final Set<VariableSymbol> assigned = identitySet();
+
+	public ClassifyBlocks(Compiler compiler) {
+		super(compiler);
+	}
+
+	@Override
+	public void enterBlock(SmalltalkParser.BlockContext ctx) {
+		super.enterBlock(ctx);
+		if ( ctx.scope!=null ) {
+			blocks.add(ctx.scope);
+		}
+	}
+
+	@Override
+	public void enterId(SmalltalkParser.IdContext ctx) {
+		Symbol sym = ctx.sym;
+		if ( sym instanceof STField ) {
+			refSelf();
+		}
+		else if ( sym instanceof VariableSymbol ) {
+			for (STBlock b : blocksUpTo(sym.getScope())) {
+				outerReads.computeIfAbsent(b, k -> identitySet()).add((VariableSymbol)sym);
+			}
+		}
+	}
+
+	@Override
+	public void enterLvalue(SmalltalkParser.LvalueContext ctx) {
+		VariableSymbol sym = ctx.sym;
+		if ( sym instanceof STField ) {
+			refSelf();
+		}
+		else if ( sym!=null ) {
+			assigned.add(sym);
+			full.addAll(blocksUpTo(sym.getScope())); // outer context is written
+		}
+	}
+
+	@Override
+	public void enterLiteral(SmalltalkParser.LiteralContext ctx) {
+		if ( ctx.getText().equals("self") ) {
+			refSelf();
+		}
+	}
+
+	@Override
+	public void enterUnarySuperMsgSend(SmalltalkParser.UnarySuperMsgSendContext ctx) {
+		refSelf();
+	}
+
+	@Override
+	public void enterSuperKeywordSend(SmalltalkParser.SuperKeywordSendContext ctx) {
+		refSelf();
+	}
+
+	@Override
+	public void enterReturn(SmalltalkParser.ReturnContext ctx) {
+		// ^ within a block returns from the enclosing method
+		full.addAll(blocksUpTo(null));
+	}
+
+	@Override
+	public void exitFile(SmalltalkParser.FileContext ctx) {
+		for (STBlock b : blocks) {
+			if ( full.contains(b) ) continue;
+			Set<VariableSymbol> reads = outerReads.get(b);
+			if ( reads!=null && reads.stream().anyMatch(assigned::contains) ) {
+				full.add(b);
+			}
+		}
+		// a block creating a full block must keep its own context alive
+		for (STBlock b : new ArrayList<>(full)) {
+			for (Scope s = b.getEnclosingScope(); isBlock(s); s = s.getEnclosingScope()) {
+				full.add((STBlock)s);
+			}
+		}
+		for (STBlock b : blocks) {
+			if ( full.contains(b) ) {
+				b.kind = STBlock.Kind.FULL;
+			}
+			else if ( refsSelf.contains(b) || outerReads.containsKey(b) ) {
+				b.kind = STBlock.Kind.COPYING;
+			}
+			else {
+				b.kind = STBlock.Kind.CLEAN;
+			}
+		}
+	}
+
+	protected void refSelf() {
+		refsSelf.addAll(blocksUpTo(null));
+	}
+
+	/** Return the blocks from the current scope outwards, stopping at
+	 *  scope stop or at the method, whichever comes first.
+	 */
+	protected List<STBlock> blocksUpTo(Scope stop) {
+		List<STBlock> result = new ArrayList<>();
+		for (Scope s = currentScope; s!=stop && isBlock(s); s = s.getEnclosingScope()) {
+			result.add((STBlock)s);
+		}
+		return result;
+	}
+
+	protected static <T> Set<T> identitySet() {
+		return Collections.newSetFromMap(new IdentityHashMap<>());
+	}
+
+	protected static boolean isBlock(Scope s) {
+		return s instanceof STBlock && !((STBlock)s).isMethod();
+	}
+}
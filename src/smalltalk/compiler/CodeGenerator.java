@@ -57,6 +57,7 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	public Code visitClassDef(SmalltalkParser.ClassDefContext ctx) {
 		currentClassScope = ctx.scope;
 		pushScope(ctx.scope);
+		addFileLiteral();
 		Code code = visitChildren(ctx);
 		popScope();
 		currentClassScope = null;
@@ -77,6 +78,7 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		pushScope(ctx.scope);//
 		if(currentClassScope!=null) //
 		{
+			addFileLiteral();
 			STMethod stMethod = ctx.scope; //
 			STCompiledBlock block = new STCompiledBlock(currentClassScope, (STBlock) currentScope);//
 			block.blocks = new STCompiledBlock[stMethod.getAllNestedScopedSymbols().size()]; //
@@ -166,7 +168,7 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		}
 		if(currentScope instanceof STMethod){
 		if(!currentScope.getName().equals("Main")) { //whatever got the test case to run
-
+			code = aggregateResult(code, dbgAtEndBody(ctx));
 			code = code.join(Compiler.pop());
 		}
 		}
@@ -178,7 +180,13 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 
 		Code code = Code.None;
 		if(currentClassScope.getName().equals("MainClass")){
-			code = Compiler.push_nil();
+			if ( !(currentScope instanceof STMethod) ) { // at the block's '['
+				code = dbg(ctx.getParent().start);
+			}
+			code = aggregateResult(code, Compiler.push_nil());
+		}
+		if ( currentScope instanceof STMethod ) {
+			code = aggregateResult(code, dbgAtEndBody(ctx));
 		}
 		return code;
 	}
@@ -187,13 +195,17 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	@Override
 	public Code visitReturn(SmalltalkParser.ReturnContext ctx) {
 		Code e = visit(ctx.messageExpression());
-		Code code = e.join(Compiler.method_return());
+		Code code = aggregateResult(e, dbg(ctx.start));
+		code = aggregateResult(code, Compiler.method_return());
 		return code;
 	}
 
 	@Override
 	public Code visitKeywordSend(SmalltalkParser.KeywordSendContext ctx) {
 		Code code = visit(ctx.recv);
+		if ( ctx.KEYWORD().isEmpty() ) { // just a binaryExpression
+			return code;
+		}
 		for(SmalltalkParser.BinaryExpressionContext str : ctx.args){
 			code = aggregateResult(code,visit(str));
 		}
@@ -278,6 +290,7 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		STBlock stBlock = (STBlock)currentScope;
 		Code blockd = Compiler.block(stBlock.index);
 		Code code = visit(ctx.body());
+		code = aggregateResult(code, dbgAtEndBlock(ctx.stop));
 		code = aggregateResult(code,Compiler.block_return());
 		ctx.scope.compiledBlock = new STCompiledBlock(currentClassScope,(STBlock)currentScope);
 		ctx.scope.compiledBlock.bytecode = code.bytes();
@@ -291,6 +304,8 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		if (ctx.bop().size() != 0){
 			String str;
 			for (int i = 1 ; i <= ctx.bop().size();i++){
+				// dbg goes ahead of the receiver, as for unary sends
+				code = aggregateResult(dbg(ctx.bop(i-1).start), code);
 				code = aggregateResult(code, visit(ctx.unaryExpression(i)));
 				str = ctx.bop().get(i-1).getText();
 				currentClassScope.stringTable.add(ctx.bop().get(i-1).getText());
@@ -306,7 +321,8 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	public Code visitAssign(SmalltalkParser.AssignContext ctx) {
 		Code msgexpr = visit(ctx.messageExpression());
 		Code lvalue = visitLvalue(ctx.lvalue());
-		Code code = aggregateResult(msgexpr,lvalue);
+		Code code = aggregateResult(dbg(ctx.start), msgexpr);
+		code = aggregateResult(code,lvalue);
 		//code = aggregateResult(code,Compiler.pop());
 		return code;
 	}
@@ -342,10 +358,20 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		return index;
 	}
 
-	@Override
-	public Code visitPassThrough(SmalltalkParser.PassThroughContext ctx) {
-		System.out.println("going here");
-		return visit(ctx.binaryExpression());
+	/** Add the file name first to the literals if generating dbg instructions */
+	public void addFileLiteral() {
+		if ( compiler.genDbg && !compiler.genLineTable ) {
+			getLiteralIndex(compiler.getFileName());
+		}
+	}
+
+	/** dbg location at the end of a method or main program's body */
+	public Code dbgAtEndBody(ParserRuleContext body) {
+		ParserRuleContext parent = body.getParent();
+		if ( parent instanceof SmalltalkParser.MainContext ) {
+			return dbgAtEndMain(parent.stop);
+		}
+		return dbgAtEndBlock(parent.stop);
 	}
 
 	public Code dbgAtEndMain(Token t) {
@@ -387,7 +413,14 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 	}
 
 	public Code dbg(int line, int charPos) {
-		return Compiler.dbg(getLiteralIndex(compiler.getFileName()), line, charPos);
+		if ( compiler.genLineTable ) {
+			// Compiler.analyzeCode moves these into a line table; no file literal needed
+			return compiler.dbgForLineTable(line, charPos);
+		}
+		if ( compiler.genDbg ) {
+			return Compiler.dbg(getLiteralIndex(compiler.getFileName()), line, charPos);
+		}
+		return Code.None;
 	}
 
 	public Code store(String id) {
@@ -407,7 +440,7 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		for(int i =0;i<keywords.size();i++){
 			sb.append(keywords.get(i));
 		}
-		Code code = receiverCode;
+		Code code = aggregateResult(receiverCode, dbg(keywords.get(0).getSymbol()));
 		Code e = Compiler.send(args.size(),currentClassScope.stringTable.add(sb.toString()));
 		code = aggregateResult(code,e);
 		return code;
@@ -453,9 +486,9 @@ public class CodeGenerator extends SmalltalkBaseVisitor<Code> {
 		Code code = new Code();
 		String str = ctx.ID().getText();
 		Symbol sym = currentScope.resolve(str);
+		code = aggregateResult(dbg(ctx.ID().getSymbol()), visit(ctx.unaryExpression()));
 		int index = getLiteralIndex(str);
-		code = visit(ctx.unaryExpression());
-		code.join(Compiler.send(0, index));
+		code = aggregateResult(code, Compiler.send(0, index));
 		return code;
 	}
 }
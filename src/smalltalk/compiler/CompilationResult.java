@@ -0,0 +1,68 @@
+package smalltalk.compiler;
+
+import smalltalk.compiler.symbols.FrozenClass;
+import smalltalk.compiler.symbols.FrozenSymbolTable;
+
+import javax.json.JsonObject;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** The outcome of one {@link CompilerService} compilation, detached from
+ *  the compiler: the error messages and the compiled classes, frozen by
+ *  {@link FrozenSymbolTable#freeze} so that no symbols or parse trees are
+ *  retained. There are no classes if there were errors.
+ */
+public class CompilationResult {
+	public final String fileName;
+	/** Syntax errors followed by {@link Compiler#errors} */
+	public final List<String> errors;
+	/** Null if there were errors */
+	public final FrozenSymbolTable classes;
+
+	public CompilationResult(String fileName, List<String> errors, FrozenSymbolTable classes) {
+		this.fileName = fileName;
+		this.errors = Collections.unmodifiableList(errors);
+		this.classes = classes;
+	}
+
+	public boolean hasErrors() { return !errors.isEmpty(); }
+
+	/** Estimate the bytes of heap this result retains; see
+	 *  {@link FrozenSymbolTable#estimateSize}.
+	 */
+	public long estimateSize() {
+		long n = 64; // this object and the unmodifiable list
+		for (String e : errors) {
+			n += 24 + 16 + e.length();
+		}
+		return classes!=null ? n+classes.estimateSize() : n;
+	}
+
+	/** Return the names of the classes in order of definition */
+	public List<String> getClassNames() {
+		List<String> names = new ArrayList<>();
+		if ( classes!=null ) {
+			for (FrozenClass c : classes.classes) names.add(c.name);
+		}
+		return names;
+	}
+
+	/** Return the object code of a class as STC writes it, or null */
+	public JsonObject getObjectCode(String className) {
+		FrozenClass c = classes!=null ? classes.getClass(className) : null;
+		return c!=null ? c.serialize() : null;
+	}
+
+	/** Write className.sto for each class to dir like STC.writeObjectFiles */
+	public void writeObjectFiles(Path dir) throws IOException {
+		if ( classes==null ) return;
+		for (FrozenClass c : classes.classes) {
+			Files.write(dir.resolve(c.name+".sto"), c.serialize().toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
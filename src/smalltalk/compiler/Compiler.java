@@ -1,12 +1,15 @@
 package smalltalk.compiler;
 
+import org.antlr.symtab.MethodSymbol;
 import org.antlr.symtab.Scope;
+import org.antlr.symtab.Symbol;
 import org.antlr.symtab.VariableSymbol;
 import org.antlr.v4.runtime.*;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import smalltalk.compiler.symbols.STArg;
 import smalltalk.compiler.symbols.STBlock;
 import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
 import smalltalk.compiler.symbols.STField;
 import smalltalk.compiler.symbols.STMethod;
 import smalltalk.compiler.symbols.STPrimitiveMethod;
@@ -14,6 +17,8 @@ import smalltalk.compiler.symbols.STSymbolTable;
 import smalltalk.compiler.symbols.STVariable;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -28,9 +33,22 @@ public class Compiler {
 	protected SmalltalkParser.FileContext fileTree;
 	protected String fileName;
 	public boolean genDbg; // generate dbg file,line instructions
+	public boolean genLineTable; // record dbg locations in STCompiledBlock.lineTable instead
+	public SendProfile profile; // execution counts from a previous run, if any
+	public boolean genTailSends; // replace send+return with tail_send
+	public boolean devirtualize; // whole program: send_direct for selectors with one implementor
+	public boolean useGeneratedLexer; // use SmalltalkLexer rather than SmalltalkScanner
+	public ANTLRErrorListener syntaxErrorListener; // also report lexer/parser errors here, if set
 
 	public final List<String> errors = new ArrayList<>();
 
+	protected Devirtualizer devirtualizer; // set during analyzeCode() if devirtualize
+	/** line, charPos of each dbg instruction if genLineTable, whose operand
+	 *  is then an index into this list rather than a combined location that
+	 *  would cut charPos to 8 bits
+	 */
+	protected final List<int[]> dbgLocations = new ArrayList<>();
+
 	public Compiler() {
 		symtab = new STSymbolTable();
 	}
@@ -40,25 +58,118 @@ public class Compiler {
 	}
 
 	public STSymbolTable compile(String fileName, String input) {
-		ParserRuleContext tree = parseClasses(new ANTLRInputStream(input));
+		return compile(fileName, CharStreams.fromString(input, fileName));
+	}
+
+	/** Compile the file at path, reading it straight into the lexer's
+	 *  buffer through a channel rather than via a String.
+	 */
+	public STSymbolTable compile(Path path) throws IOException {
+		return compile(path.getFileName().toString(), CharStreams.fromPath(path, StandardCharsets.UTF_8));
+	}
+
+	public STSymbolTable compile(String fileName, CharStream input) {
+		this.fileName = fileName;
+		dbgLocations.clear();
+		ParserRuleContext tree = parseClasses(input);
 		if(tree!=null){
 			defSymbols(tree);
 			resolveSymbols(tree);
+			classifyBlocks(tree);
+			CodeGenerator codeGenerator = new CodeGenerator(this);
+			codeGenerator.visit(tree);
+			analyzeCode(getDefinedClasses(fileTree));
 		}
-		CodeGenerator codeGenerator = new CodeGenerator(this);
-		codeGenerator.visit(tree);
 		return symtab;
 	}
 
+	/** Return the classes defined by tree, MainClass included, but not
+	 *  those already in the symbol table from an earlier compile.
+	 */
+	public static List<STClass> getDefinedClasses(SmalltalkParser.FileContext tree) {
+		List<STClass> classes = new ArrayList<>();
+		for (SmalltalkParser.ClassDefContext c : tree.classDef()) {
+			if ( c.scope!=null ) classes.add(c.scope);
+		}
+		if ( tree.main()!=null && tree.main().classScope!=null ) {
+			classes.add(tree.main().classScope);
+		}
+		return classes;
+	}
+
+	/** Fill in the information derived from the generated bytecode of every
+	 *  compiled method and nested block of classes, such as the send-site
+	 *  table and maximum operand stack depth. The passes rewrite bytecode in
+	 *  place, so each class must be analyzed only once.
+	 */
+	public void analyzeCode(List<STClass> classes) {
+		devirtualizer = devirtualize ? new Devirtualizer(symtab) : null;
+		for (STClass cls : classes) {
+			for (MethodSymbol m : cls.getDefinedMethods()) {
+				STCompiledBlock method = ((STMethod) m).compiledBlock;
+				if ( method==null ) continue;
+				analyzeCode(method);
+				if ( method.blocks!=null ) {
+					for (STCompiledBlock blk : method.blocks) {
+						analyzeCode(blk);
+					}
+				}
+			}
+		}
+		if ( devirtualizer!=null ) {
+			Devirtualizer.link(symtab, m -> true);
+		}
+	}
+
+	public void analyzeCode(STCompiledBlock blk) {
+		if ( genTailSends && !blk.contextEscapes ) {
+			Bytecode.rewriteTailSends(blk.bytecode, blk.blockKind!=null);
+		}
+		if ( devirtualizer!=null ) {
+			blk.bytecode = devirtualizer.rewrite(blk.enclosingClass, blk.bytecode);
+		}
+		if ( genLineTable && blk.bytecode!=null ) {
+			LineTable lineTable = new LineTable();
+			blk.bytecode = LineTable.stripDbgInstructions(blk.bytecode, lineTable, dbgLocations);
+			blk.lineTable = lineTable.toBytes();
+		}
+		blk.sendSites = Bytecode.sendSites(blk.bytecode);
+		blk.maxStack = Bytecode.maxStackDepth(blk.bytecode);
+		if ( profile!=null ) {
+			applyProfile(blk);
+		}
+	}
+
+	/** Copy the counts for blk from {@link #profile} */
+	public void applyProfile(STCompiledBlock blk) {
+		String className = blk.enclosingClass.getName();
+		blk.invocations = profile.getInvocations(className, blk.qualifiedName);
+		blk.siteReceivers = new ArrayList<>();
+		for (int pc : blk.sendSites) {
+			blk.siteReceivers.add(profile.getReceivers(className, blk.qualifiedName, pc));
+		}
+	}
+
 	/** Parse classes and/or a chunk of code, returning AST root.
 	 *  Return null upon syntax error.
 	 */
 	public ParserRuleContext parseClasses(CharStream input) {
-		SmalltalkLexer l = new SmalltalkLexer(input);
+		TokenSource l;
+		if ( useGeneratedLexer ) {
+			SmalltalkLexer lexer = new SmalltalkLexer(input);
+			if ( syntaxErrorListener!=null ) lexer.addErrorListener(syntaxErrorListener);
+			l = lexer;
+		}
+		else {
+			SmalltalkScanner scanner = new SmalltalkScanner(input);
+			if ( syntaxErrorListener!=null ) scanner.addErrorListener(syntaxErrorListener);
+			l = scanner;
+		}
 		CommonTokenStream tokens = new CommonTokenStream(l);
 		//System.out.println(tokens.getTokens());
 
 		this.parser = new SmalltalkParser(tokens);
+		if ( syntaxErrorListener!=null ) parser.addErrorListener(syntaxErrorListener);
 		fileTree= parser.file();
 
 		//System.out.println(((Tree)r.getTree()).toStringTree());
@@ -80,6 +191,12 @@ public class Compiler {
 		walker.walk(def, tree);
 	}
 
+	public void classifyBlocks(ParserRuleContext tree) {
+		ClassifyBlocks classify = new ClassifyBlocks(this);
+		ParseTreeWalker walker = new ParseTreeWalker();
+		walker.walk(classify, tree);
+	}
+
 	public STBlock createBlock(STMethod currentMethod, ParserRuleContext tree) {
 //		System.out.println("create block in "+currentMethod+" "+args);
 		STBlock stBlock = new STBlock(currentMethod,tree);
@@ -100,6 +217,10 @@ public class Compiler {
 //		System.out.println("	create primitive "+selector+" "+args+"->"+primitiveName);
 		// convert "<classname>_<methodname>" Primitive value
 		// warn if classname!=currentClass
+		if ( Primitive.lookup(primitiveName)==null ) {
+			error("unknown primitive "+primitiveName+" for "+
+				  currentClass.getName()+">>"+selector);
+		}
 		STPrimitiveMethod stPrimitiveMethod = new STPrimitiveMethod(selector,tree,primitiveName);
 		return stPrimitiveMethod;
 	}
@@ -173,8 +294,20 @@ public class Compiler {
 	}
 
 
+	/** Return a dbg instruction for line:charPos whose operand indexes
+	 *  {@link #dbgLocations}, for {@link #analyzeCode} to move into a line table.
+	 */
+	public Code dbgForLineTable(int line, int charPos) {
+		dbgLocations.add(new int[] {line, charPos});
+		return Code.of(Bytecode.DBG)
+			.join(toLiteral(0))
+			.join(intToBytes(dbgLocations.size()-1));
+	}
+
 	public static Code dbg(int filenameLitIndex, int line, int charPos) {
-		return null;
+		return Code.of(Bytecode.DBG)
+			.join(toLiteral(filenameLitIndex))
+			.join(intToBytes(Bytecode.combineLineCharPos(line, charPos)));
 	}
 
 	public String getFileName() {
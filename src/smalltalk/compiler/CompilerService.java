@@ -0,0 +1,149 @@
+package smalltalk.compiler;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.dfa.DFA;
+import smalltalk.compiler.symbols.FrozenSymbolTable;
+import smalltalk.compiler.symbols.STCompiledBlock;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/** Compile sources on behalf of a long-running process such as a build
+ *  server. Any number of threads may call compile at once. Each call uses
+ *  a new {@link Compiler} and symbol table and returns a detached
+ *  {@link CompilationResult}, so nothing of a compilation stays reachable
+ *  after it returns.
+ *
+ *  The only state shared between compilations is the parser's DFA cache,
+ *  which ANTLR keeps in static fields of SmalltalkParser. It is bounded
+ *  by the grammar but is cleared anyway whenever it grows beyond
+ *  {@link #maxDFAStates} and no compilation is running, since a parser
+ *  may be adding to it.
+ */
+public class CompilerService {
+	public volatile boolean genDbg;
+	public volatile boolean genLineTable;
+	public volatile boolean genTailSends;
+	public volatile SendProfile profile;
+	public volatile int maxDFAStates = 10000;
+
+	protected final AtomicInteger liveCompilations = new AtomicInteger();
+	protected final AtomicLong compilations = new AtomicLong();
+	protected final AtomicLong failedCompilations = new AtomicLong();
+	protected final AtomicLong resultBytes = new AtomicLong();
+	protected volatile int dfaStates;
+	/** Compilations hold the read lock; clearing the DFA cache the write lock */
+	protected final ReadWriteLock dfaLock = new ReentrantReadWriteLock();
+
+	public CompilationResult compile(String fileName, String input) {
+		return compile(fileName, CharStreams.fromString(input, fileName));
+	}
+
+	public CompilationResult compile(Path path) throws IOException {
+		return compile(path.getFileName().toString(), CharStreams.fromPath(path, StandardCharsets.UTF_8));
+	}
+
+	public CompilationResult compile(String fileName, CharStream input) {
+		liveCompilations.incrementAndGet();
+		try {
+			List<String> errors = new ArrayList<>();
+			Compiler compiler = createCompiler();
+			compiler.syntaxErrorListener = new BaseErrorListener() {
+				@Override
+				public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+				                        int line, int charPositionInLine, String msg,
+				                        RecognitionException e)
+				{
+					errors.add(fileName+" line "+line+":"+charPositionInLine+" "+msg);
+				}
+			};
+			dfaLock.readLock().lock();
+			try {
+				compiler.compile(fileName, input);
+			}
+			finally {
+				dfaLock.readLock().unlock();
+			}
+			errors.addAll(compiler.errors);
+
+			FrozenSymbolTable classes = null;
+			if ( errors.isEmpty() ) {
+				classes = FrozenSymbolTable.freeze(compiler.symtab);
+			}
+			else {
+				failedCompilations.incrementAndGet();
+			}
+			compilations.incrementAndGet();
+			trimDFA(compiler.parser.getInterpreter());
+			CompilationResult result = new CompilationResult(fileName, errors, classes);
+			resultBytes.addAndGet(result.estimateSize());
+			return result;
+		}
+		finally {
+			liveCompilations.decrementAndGet();
+		}
+	}
+
+	protected Compiler createCompiler() {
+		Compiler compiler = new Compiler();
+		compiler.genDbg = genDbg;
+		compiler.genLineTable = genLineTable;
+		compiler.genTailSends = genTailSends;
+		compiler.profile = profile;
+		return compiler;
+	}
+
+	/** Record the size of the shared DFA cache and clear it if too big,
+	 *  unless another compilation is running; a later one will try again.
+	 */
+	protected void trimDFA(ParserATNSimulator interp) {
+		int n = 0;
+		for (DFA dfa : interp.decisionToDFA) {
+			n += dfa.states.size();
+		}
+		if ( n>maxDFAStates && dfaLock.writeLock().tryLock() ) {
+			try {
+				interp.clearDFA();
+				n = 0;
+			}
+			finally {
+				dfaLock.writeLock().unlock();
+			}
+		}
+		dfaStates = n;
+	}
+
+	// Metrics
+
+	/** Compilations in progress */
+	public int getLiveCompilations() { return liveCompilations.get(); }
+
+	public long getCompilations() { return compilations.get(); }
+
+	/** Compilations with syntax or semantic errors */
+	public long getFailedCompilations() { return failedCompilations.get(); }
+
+	/** The estimated heap retained by all results returned so far, an upper
+	 *  bound on what callers keep; see {@link CompilationResult#estimateSize}.
+	 *  Nothing else of a compilation is retained but the DFA cache and
+	 *  {@link #getTemplateErrors} messages.
+	 */
+	public long getResultBytes() { return resultBytes.get(); }
+
+	/** States in the shared DFA cache after the last compilation */
+	public int getDFAStates() { return dfaStates; }
+
+	public long getTemplateErrors() { return STCompiledBlock.templateErrorListener.getNumberOfErrors(); }
+}
@@ -46,6 +46,7 @@ public class DefineSymbols extends SmalltalkBaseListener {
 			return;
 		}
 		STClass cl = new STClass(className, superClassName);
+		cl.fileName = compiler.getFileName();
 		currentScope.define(cl);
 		compiler.defineFields(cl, instanceVars);
 		ctx.scope = cl;
@@ -63,6 +64,7 @@ public class DefineSymbols extends SmalltalkBaseListener {
 		// pretend user defined "class MainClass [main [...]]"
 		// define MainClass
 		STClass cl = new STClass("MainClass", "Object");
+		cl.fileName = compiler.getFileName();
 		ctx.classScope = cl;
 		currentScope.define(cl);
 		pushScope(cl);
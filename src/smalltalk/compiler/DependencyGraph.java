@@ -0,0 +1,271 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.MethodSymbol;
+import org.antlr.symtab.Symbol;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/** What each compiled class depends on, so that after editing some files
+ *  we can recompile only the classes whose object code could change.
+ *  STC writes the graph to {@link #FILE_NAME} next to the object files.
+ *
+ *  The object code of a class depends on its superclasses, since field
+ *  indexes count the fields of all superclasses. Other classes are
+ *  referenced by name only: push_global for class names and send for
+ *  selectors, which the VM looks up at run time. Those edges are
+ *  recorded too, and followed by {@link #classesToRebuild} only for
+ *  whole-program builds, whose code can depend on other classes' methods.
+ *
+ *  Source files are identified by their path relative to the project
+ *  root, as {@link #sourcePath} returns it, since files in different
+ *  directories may share a name.
+ */
+public class DependencyGraph {
+	public static final String FILE_NAME = "dependencies.json";
+
+	public static class Node {
+		public final String name;
+		/** Path of the source file relative to the project root */
+		public final String fileName;
+		public final String superClassName;
+		/** Names pushed by push_global, normally class names */
+		public final Set<String> globals = new TreeSet<>();
+		/** Selectors sent by the class's methods and blocks */
+		public final Set<String> sends = new TreeSet<>();
+		/** Selectors of methods the class defines */
+		public final Set<String> defines = new TreeSet<>();
+
+		public Node(String name, String fileName, String superClassName) {
+			this.name = name;
+			this.fileName = fileName;
+			this.superClassName = superClassName;
+		}
+	}
+
+	/** Class name to node, in order of definition */
+	protected final Map<String, Node> nodes = new LinkedHashMap<>();
+
+	/** Return the dependencies of all classes in symtab, each recorded
+	 *  under the file name it was compiled with.
+	 */
+	public static DependencyGraph build(STSymbolTable symtab) {
+		return build(symtab, null);
+	}
+
+	/** Return the dependencies of all classes in symtab, which were compiled
+	 *  from sourcePath if not null. Predefined classes keep no file.
+	 */
+	public static DependencyGraph build(STSymbolTable symtab, String sourcePath) {
+		DependencyGraph g = new DependencyGraph();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( s instanceof STClass ) {
+				STClass cls = (STClass) s;
+				g.add(cls, sourcePath!=null && cls.fileName!=null ? sourcePath : cls.fileName);
+			}
+		}
+		return g;
+	}
+
+	/** Return fileName relative to root, with '/' between directories, so
+	 *  that the same file always gets the same name in the graph.
+	 */
+	public static String sourcePath(Path root, String fileName) {
+		Path path = root.toAbsolutePath().normalize()
+			.relativize(root.resolve(fileName).toAbsolutePath().normalize());
+		return path.toString().replace(File.separatorChar, '/');
+	}
+
+	public Node add(STClass cls) {
+		return add(cls, cls.fileName);
+	}
+
+	public Node add(STClass cls, String fileName) {
+		Node node = new Node(cls.getName(), fileName, cls.getSuperClassName());
+		String[] literals = cls.stringTable.toArray();
+		for (MethodSymbol m : cls.getDefinedMethods()) {
+			node.defines.add(m.getName());
+			STCompiledBlock method = ((STMethod) m).compiledBlock;
+			if ( method==null ) continue;
+			addReferences(node, method.bytecode, literals);
+			if ( method.blocks!=null ) {
+				for (STCompiledBlock blk : method.blocks) {
+					addReferences(node, blk.bytecode, literals);
+				}
+			}
+		}
+		nodes.put(node.name, node);
+		return node;
+	}
+
+	protected static void addReferences(Node node, byte[] bytecode, String[] literals) {
+		int ip = 0;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			int opcode = bytecode[ip];
+			if ( opcode==Bytecode.PUSH_GLOBAL ) {
+				node.globals.add(literals[Bytecode.getShort(bytecode, ip+1)]);
+			}
+			else if ( Bytecode.isSend(opcode) ) { // nargs, selector
+				node.sends.add(literals[Bytecode.getShort(bytecode, ip+3)]);
+				if ( opcode==Bytecode.SEND_DIRECT ) { // holds an index into that class's methods
+					node.globals.add(literals[Bytecode.getShort(bytecode, ip+5)]);
+				}
+			}
+			ip += Bytecode.sizeOfInstruction(opcode);
+		}
+	}
+
+	public Node getNode(String className) { return nodes.get(className); }
+
+	public Collection<Node> getNodes() { return nodes.values(); }
+
+	/** Replace or add the nodes of other, such as after recompiling some
+	 *  files, and drop the classes previously defined in those files.
+	 */
+	public void merge(DependencyGraph other) {
+		Set<String> files = new TreeSet<>();
+		for (Node n : other.nodes.values()) {
+			if ( n.fileName!=null ) files.add(n.fileName);
+		}
+		nodes.values().removeIf(n -> n.fileName!=null && files.contains(n.fileName));
+		nodes.putAll(other.nodes);
+	}
+
+	/** Return the classes to recompile after changing the given source
+	 *  files: those defined in the files plus all their subclasses. If
+	 *  wholeProgram, also classes that reference any of those by name or
+	 *  send a selector one of them defines, repeatedly.
+	 */
+	public Set<String> classesToRebuild(Collection<String> changedFiles, boolean wholeProgram) {
+		Set<String> rebuild = new TreeSet<>();
+		Deque<Node> work = new ArrayDeque<>();
+		for (Node n : nodes.values()) {
+			if ( changedFiles.contains(n.fileName) ) {
+				rebuild.add(n.name);
+				work.add(n);
+			}
+		}
+		while ( !work.isEmpty() ) {
+			Node changed = work.remove();
+			for (Node n : nodes.values()) {
+				if ( rebuild.contains(n.name) ) continue;
+				if ( changed.name.equals(n.superClassName) ||
+					 wholeProgram && dependsOnMembers(n, changed) )
+				{
+					rebuild.add(n.name);
+					work.add(n);
+				}
+			}
+		}
+		return rebuild;
+	}
+
+	/** Return the source files to recompile after changing changedFiles */
+	public Set<String> filesToRebuild(Collection<String> changedFiles, boolean wholeProgram) {
+		Set<String> files = new TreeSet<>(changedFiles);
+		for (String c : classesToRebuild(changedFiles, wholeProgram)) {
+			String f = nodes.get(c).fileName;
+			if ( f!=null ) files.add(f);
+		}
+		return files;
+	}
+
+	protected static boolean dependsOnMembers(Node n, Node changed) {
+		if ( n.globals.contains(changed.name) ) return true;
+		for (String selector : changed.defines) {
+			if ( n.sends.contains(selector) ) return true;
+		}
+		return false;
+	}
+
+	public JsonObject serialize() {
+		JsonArrayBuilder classArray = Json.createArrayBuilder();
+		for (Node n : nodes.values()) {
+			JsonObjectBuilder builder = Json.createObjectBuilder();
+			builder.add("name", n.name);
+			if ( n.fileName!=null ) {
+				builder.add("fileName", n.fileName);
+			}
+			if ( n.superClassName!=null ) {
+				builder.add("superClassName", n.superClassName);
+			}
+			builder.add("globals", toArray(n.globals));
+			builder.add("sends", toArray(n.sends));
+			builder.add("defines", toArray(n.defines));
+			classArray.add(builder);
+		}
+		return Json.createObjectBuilder().add("classes", classArray).build();
+	}
+
+	public static DependencyGraph fromJson(JsonObject json) {
+		DependencyGraph g = new DependencyGraph();
+		for (JsonValue v : json.getJsonArray("classes")) {
+			JsonObject c = (JsonObject)v;
+			Node n = new Node(c.getString("name"),
+			                  c.getString("fileName", null),
+			                  c.getString("superClassName", null));
+			addAll(n.globals, c.getJsonArray("globals"));
+			addAll(n.sends, c.getJsonArray("sends"));
+			addAll(n.defines, c.getJsonArray("defines"));
+			g.nodes.put(n.name, n);
+		}
+		return g;
+	}
+
+	public void write(Path dir) throws IOException {
+		try (Writer w = Files.newBufferedWriter(dir.resolve(FILE_NAME), StandardCharsets.UTF_8);
+		     JsonWriter json = Json.createWriter(w))
+		{
+			json.writeObject(serialize());
+		}
+	}
+
+	/** Load the graph in dir, or return an empty graph if there is none */
+	public static DependencyGraph load(Path dir) throws IOException {
+		Path file = dir.resolve(FILE_NAME);
+		if ( !Files.exists(file) ) return new DependencyGraph();
+		try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+		     JsonReader json = Json.createReader(r))
+		{
+			return fromJson(json.readObject());
+		}
+	}
+
+	protected static JsonArrayBuilder toArray(Set<String> strings) {
+		JsonArrayBuilder a = Json.createArrayBuilder();
+		for (String s : strings) {
+			a.add(s);
+		}
+		return a;
+	}
+
+	protected static void addAll(Set<String> strings, JsonArray a) {
+		for (int i = 0; i<a.size(); i++) {
+			strings.add(a.getString(i));
+		}
+	}
+}
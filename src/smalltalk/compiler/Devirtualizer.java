@@ -0,0 +1,147 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.MethodSymbol;
+import org.antlr.symtab.Symbol;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/** Class-hierarchy analysis: find the selectors that exactly one class in
+ *  the symbol table implements and turn sends of them into
+ *  {@link Bytecode#SEND_DIRECT}, so that the VM can skip the lookup when
+ *  the receiver is an instance of that class.
+ *
+ *  This is only worthwhile if the symbol table holds the whole program,
+ *  image included; see {@link Compiler#devirtualize}. It stays correct
+ *  if another class implements the selector after all, since the VM
+ *  guards the direct call with the receiver's class and falls back to a
+ *  normal send.
+ *
+ *  Only instance methods are targets, since the guard compares the class of
+ *  the receiver, so class methods are counted separately: a class method
+ *  and an instance method with the same selector don't make the selector
+ *  polymorphic, and a selector only class methods implement is never
+ *  bound to one.
+ *
+ *  The method index depends on the order in which the target class
+ *  serializes its methods, which a profile or tree shaking can change, so
+ *  {@link #link} fills it in once that order is known.
+ */
+public class Devirtualizer {
+	/** Selector to the only instance method implementing it, or null if several do */
+	protected final Map<String, STMethod> implementors = new HashMap<>();
+	/** Likewise for class methods */
+	protected final Map<String, STMethod> classImplementors = new HashMap<>();
+
+	public Devirtualizer(STSymbolTable symtab) {
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( !(s instanceof STClass) ) continue;
+			for (MethodSymbol m : ((STClass) s).getDefinedMethods()) {
+				STMethod method = (STMethod) m;
+				Map<String, STMethod> map = method.isClassMethod ? classImplementors : implementors;
+				if ( map.containsKey(m.getName()) ) {
+					map.put(m.getName(), null);
+				}
+				else {
+					map.put(m.getName(), method);
+				}
+			}
+		}
+	}
+
+	/** Return the only instance method, or class method if isClassMethod,
+	 *  implementing selector, or null.
+	 */
+	public STMethod getSoleImplementor(String selector, boolean isClassMethod) {
+		return (isClassMethod ? classImplementors : implementors).get(selector);
+	}
+
+	/** Return a copy of bytecode, compiled for cls, in which sends of
+	 *  selectors with a sole implementor are SEND_DIRECT instructions
+	 *  with method index -1. Tail sends and super sends are left alone.
+	 */
+	public byte[] rewrite(STClass cls, byte[] bytecode) {
+		if ( bytecode==null ) return null;
+		ByteArrayOutputStream out = new ByteArrayOutputStream(bytecode.length);
+		String[] literals = cls.stringTable.toArray();
+		int ip = 0;
+		while ( ip<bytecode.length ) {
+			int size = Bytecode.sizeOfInstruction(bytecode[ip]);
+			STMethod target = null;
+			if ( bytecode[ip]==Bytecode.SEND ) {
+				target = getSoleImplementor(literals[Bytecode.getShort(bytecode, ip+3)], false);
+			}
+			if ( target!=null ) {
+				int classIndex = cls.stringTable.add(target.getEnclosingScope().getName());
+				out.write(Bytecode.SEND_DIRECT);
+				out.write(bytecode, ip+1, 4); // nargs, selector
+				writeShort(out, classIndex);
+				writeShort(out, -1);
+			}
+			else {
+				out.write(bytecode, ip, size);
+			}
+			ip += size;
+		}
+		return out.toByteArray();
+	}
+
+	/** Set the method index of every SEND_DIRECT in the classes of symtab
+	 *  to the position of its target among the methods of its class that
+	 *  keep accepts, in the order {@link STClass#serialize} writes them,
+	 *  or to -1 if keep rejects the target.
+	 */
+	public static void link(STSymbolTable symtab, Predicate<STMethod> keep) {
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( !(s instanceof STClass) ) continue;
+			STClass cls = (STClass) s;
+			String[] literals = cls.stringTable.toArray();
+			for (MethodSymbol m : cls.getDefinedMethods()) {
+				STCompiledBlock method = ((STMethod) m).compiledBlock;
+				if ( method==null ) continue;
+				link(symtab, method.bytecode, literals, keep);
+				if ( method.blocks!=null ) {
+					for (STCompiledBlock blk : method.blocks) {
+						link(symtab, blk.bytecode, literals, keep);
+					}
+				}
+			}
+		}
+	}
+
+	protected static void link(STSymbolTable symtab, byte[] bytecode, String[] literals,
+	                           Predicate<STMethod> keep)
+	{
+		int ip = 0;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			if ( bytecode[ip]==Bytecode.SEND_DIRECT ) { // nargs, selector, class, index
+				String selector = literals[Bytecode.getShort(bytecode, ip+3)];
+				Symbol target = symtab.GLOBALS.resolve(literals[Bytecode.getShort(bytecode, ip+5)]);
+				int index = -1;
+				if ( target instanceof STClass ) {
+					List<STMethod> methods = ((STClass) target).getMethodsInSerializeOrder();
+					methods.removeIf(keep.negate());
+					for (int i = 0; i<methods.size(); i++) {
+						STMethod m = methods.get(i);
+						if ( !m.isClassMethod && m.getName().equals(selector) ) index = i;
+					}
+				}
+				bytecode[ip+7] = (byte)(index>>8);
+				bytecode[ip+8] = (byte)index;
+			}
+			ip += Bytecode.sizeOfInstruction(bytecode[ip]);
+		}
+	}
+
+	protected static void writeShort(ByteArrayOutputStream out, int v) {
+		out.write(v>>8);
+		out.write(v);
+	}
+}
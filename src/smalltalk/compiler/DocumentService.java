@@ -0,0 +1,275 @@
+package smalltalk.compiler;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/** Keep the parse tree and symbol table of each open document, as a
+ *  language server would, and publish its diagnostics after every edit.
+ *  Diagnostics are the syntax errors followed by the {@link Compiler#errors}
+ *  a full compile of the document would report, if it parses.
+ *
+ *  An edit within the body of one class rescans and reparses only that
+ *  classDef, from where it starts in the document, then redefines the
+ *  class and resolves it and its subclasses again. Edits elsewhere, edits
+ *  that rename a class or no longer parse as exactly one classDef, and
+ *  any edit while the document has syntax errors, fall back to parsing the
+ *  whole document. Tokens of classes after an incremental edit keep their
+ *  old lines until the next full parse.
+ *
+ *  Offsets are char indexes into the document text, which match the
+ *  scanner's indexes for text without supplementary characters.
+ */
+public class DocumentService {
+	public static class ClassChunk {
+		public SmalltalkParser.ClassDefContext tree;
+		/** Offsets of the first and last char of the classDef */
+		public int start, stop;
+		public STClass cls;
+		protected List<String> defineErrors = Collections.emptyList();
+		protected List<String> resolveErrors = Collections.emptyList();
+	}
+
+	public static class Document {
+		public final String uri;
+		public String text;
+		/** Null while the document has syntax errors */
+		public SmalltalkParser.FileContext tree;
+		public STSymbolTable symtab = new STSymbolTable();
+		public final List<ClassChunk> classes = new ArrayList<>();
+		protected List<String> syntaxErrors = Collections.emptyList();
+		protected List<String> mainDefineErrors = Collections.emptyList();
+		protected List<String> mainResolveErrors = Collections.emptyList();
+
+		public Document(String uri, String text) {
+			this.uri = uri;
+			this.text = text;
+		}
+
+		public List<String> getDiagnostics() {
+			List<String> diagnostics = new ArrayList<>(syntaxErrors);
+			for (ClassChunk c : classes) diagnostics.addAll(c.defineErrors);
+			diagnostics.addAll(mainDefineErrors);
+			for (ClassChunk c : classes) diagnostics.addAll(c.resolveErrors);
+			diagnostics.addAll(mainResolveErrors);
+			return diagnostics;
+		}
+	}
+
+	/** Collect errors in the format of ConsoleErrorListener */
+	protected static class ErrorCollector extends BaseErrorListener {
+		public final List<String> errors = new ArrayList<>();
+
+		@Override
+		public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+		                        int line, int charPositionInLine, String msg,
+		                        RecognitionException e)
+		{
+			errors.add("line "+line+":"+charPositionInLine+" "+msg);
+		}
+	}
+
+	protected final Map<String, Document> documents = new HashMap<>();
+
+	/** Called with the uri and diagnostics of a document after each update */
+	protected final BiConsumer<String, List<String>> publisher;
+
+	public int incrementalUpdates, fullUpdates;
+	public long lastUpdateNanos;
+
+	public DocumentService(BiConsumer<String, List<String>> publisher) {
+		this.publisher = publisher;
+	}
+
+	public Document open(String uri, String text) {
+		Document doc = new Document(uri, text);
+		documents.put(uri, doc);
+		long start = System.nanoTime();
+		parse(doc);
+		finish(doc, start);
+		fullUpdates++;
+		return doc;
+	}
+
+	public void close(String uri) {
+		documents.remove(uri);
+	}
+
+	public Document getDocument(String uri) {
+		return documents.get(uri);
+	}
+
+	/** Replace length chars at offset in the document with text */
+	public Document change(String uri, int offset, int length, String text) {
+		Document doc = documents.get(uri);
+		long start = System.nanoTime();
+		String old = doc.text;
+		doc.text = old.substring(0, offset)+text+old.substring(offset+length);
+		ClassChunk c = doc.syntaxErrors.isEmpty() ? findClass(doc, offset, offset+length) : null;
+		if ( c!=null && reparse(doc, c, text.length()-length) ) {
+			incrementalUpdates++;
+		}
+		else {
+			parse(doc);
+			fullUpdates++;
+		}
+		finish(doc, start);
+		return doc;
+	}
+
+	/** Return the class whose text contains the edited range [start..stop)
+	 *  without its closing bracket, or null.
+	 */
+	protected ClassChunk findClass(Document doc, int start, int stop) {
+		for (ClassChunk c : doc.classes) {
+			if ( start>=c.start && stop<=c.stop ) return c;
+		}
+		return null;
+	}
+
+	/** Parse the whole document and redo its symbols */
+	protected void parse(Document doc) {
+		ErrorCollector listener = new ErrorCollector();
+		SmalltalkParser parser = createParser(CharStreams.fromString(doc.text, doc.uri), listener);
+		SmalltalkParser.FileContext tree = parser.file();
+		doc.classes.clear();
+		doc.syntaxErrors = listener.errors;
+		if ( parser.getNumberOfSyntaxErrors()>0 ) {
+			doc.tree = null;
+			doc.symtab = new STSymbolTable();
+			doc.mainDefineErrors = doc.mainResolveErrors = Collections.emptyList();
+			return;
+		}
+		doc.tree = tree;
+		for (SmalltalkParser.ClassDefContext classDef : tree.classDef()) {
+			ClassChunk c = new ClassChunk();
+			c.tree = classDef;
+			c.start = classDef.getStart().getStartIndex();
+			c.stop = classDef.getStop().getStopIndex();
+			doc.classes.add(c);
+		}
+		defineAll(doc);
+	}
+
+	/** Reparse class c after an edit within it that changed the length of
+	 *  the text by delta and update the symbols of c and its subclasses.
+	 *  Return false, leaving doc unchanged, if the new text of c is not
+	 *  exactly one error-free classDef for the same class.
+	 */
+	protected boolean reparse(Document doc, ClassChunk c, int delta) {
+		ErrorCollector listener = new ErrorCollector();
+		CharStream input = CharStreams.fromString(doc.text, doc.uri);
+		SmalltalkScanner scanner = new SmalltalkScanner(input);
+		int line = 1, lineStart = 0;
+		for (int i = 0; i<c.start; i++) {
+			if ( doc.text.charAt(i)=='\n' ) {
+				line++;
+				lineStart = i+1;
+			}
+		}
+		scanner.seek(c.start, line, c.start-lineStart);
+		SmalltalkParser parser = createParser(scanner, listener);
+		SmalltalkParser.ClassDefContext classDef = parser.classDef();
+		if ( !listener.errors.isEmpty() ||
+			 classDef.getStop()==null ||
+			 classDef.getStop().getStopIndex()!=c.stop+delta )
+		{
+			return false;
+		}
+		boolean sameClass = c.cls!=null && classDef.ID(0).getText().equals(c.cls.getName());
+
+		doc.tree.children.set(doc.tree.children.indexOf(c.tree), classDef);
+		classDef.parent = doc.tree;
+		c.tree = classDef;
+		c.start = classDef.getStart().getStartIndex(); // moves if the edit was at c.start
+		c.stop += delta;
+		for (ClassChunk next : doc.classes.subList(doc.classes.indexOf(c)+1, doc.classes.size())) {
+			next.start += delta;
+			next.stop += delta;
+		}
+		if ( !sameClass ) { // other classes may now (fail to) define
+			defineAll(doc);
+			return true;
+		}
+		doc.symtab.undefine(c.cls.getName());
+		define(doc, c);
+		List<ClassChunk> work = new ArrayList<>();
+		work.add(c);
+		for (int i = 0; i<work.size(); i++) {
+			ClassChunk changed = work.get(i);
+			resolve(doc, changed);
+			for (ClassChunk sub : doc.classes) {
+				if ( sub.cls!=null && !work.contains(sub) &&
+					 changed.cls.getName().equals(sub.cls.getSuperClassName()) )
+				{
+					work.add(sub);
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Define and resolve all symbols of doc in a new symbol table */
+	protected void defineAll(Document doc) {
+		doc.symtab = new STSymbolTable();
+		for (ClassChunk c : doc.classes) define(doc, c);
+		Compiler compiler = createCompiler(doc);
+		compiler.defSymbols(doc.tree.main());
+		doc.mainDefineErrors = compiler.errors;
+		for (ClassChunk c : doc.classes) resolve(doc, c);
+		compiler = createCompiler(doc);
+		compiler.resolveSymbols(doc.tree.main());
+		doc.mainResolveErrors = compiler.errors;
+	}
+
+	protected void define(Document doc, ClassChunk c) {
+		Compiler compiler = createCompiler(doc);
+		compiler.defSymbols(c.tree);
+		c.defineErrors = compiler.errors;
+		c.cls = c.tree.scope;
+	}
+
+	protected void resolve(Document doc, ClassChunk c) {
+		Compiler compiler = createCompiler(doc);
+		compiler.resolveSymbols(c.tree);
+		c.resolveErrors = compiler.errors;
+	}
+
+	protected Compiler createCompiler(Document doc) {
+		Compiler compiler = new Compiler(doc.symtab);
+		compiler.setFileName(doc.uri);
+		return compiler;
+	}
+
+	protected SmalltalkParser createParser(CharStream input, ErrorCollector listener) {
+		SmalltalkScanner scanner = new SmalltalkScanner(input);
+		return createParser(scanner, listener);
+	}
+
+	protected SmalltalkParser createParser(SmalltalkScanner scanner, ErrorCollector listener) {
+		scanner.removeErrorListeners();
+		scanner.addErrorListener(listener);
+		SmalltalkParser parser = new SmalltalkParser(new CommonTokenStream(scanner));
+		parser.removeErrorListeners();
+		parser.addErrorListener(listener);
+		return parser;
+	}
+
+	protected void finish(Document doc, long start) {
+		List<String> diagnostics = doc.getDiagnostics();
+		lastUpdateNanos = System.nanoTime() - start;
+		if ( publisher!=null ) publisher.accept(doc.uri, diagnostics);
+	}
+}
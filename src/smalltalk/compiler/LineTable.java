@@ -0,0 +1,152 @@
+package smalltalk.compiler;
+
+import smalltalk.compiler.misc.ByteList;
+
+import java.util.List;
+
+/** A compact map from bytecode address to source line:charPos for a
+ *  single compiled block. The VM only needs it to report locations (e.g.,
+ *  in stack traces) so it lives beside the bytecode rather than in it as
+ *  {@link Bytecode#DBG} instructions, which the interpreter would
+ *  otherwise have to dispatch and skip on every execution.
+ *
+ *  Entries are sorted by address and each is delta-encoded against the
+ *  previous entry as three variable-length ints: address delta (unsigned),
+ *  line delta (zig-zag signed), char position (unsigned). An entry covers
+ *  all instructions from its address up to the next entry's address.
+ */
+public class LineTable {
+	protected final ByteList data = new ByteList();
+	protected int lastPC = 0;
+	protected int lastLine = 0;
+
+	/** Entry waiting for a larger address; a later entry for the same
+	 *  address replaces it.
+	 */
+	protected int pendingPC = -1;
+	protected int pendingLine;
+	protected int pendingCharPos;
+
+	/** Record that the instruction at pc (and those after it up to the next
+	 *  entry) came from line:charPos. Addresses must not decrease.
+	 */
+	public void add(int pc, int line, int charPos) {
+		if ( pc<pendingPC ) {
+			throw new IllegalArgumentException("line table address "+pc+" < "+pendingPC);
+		}
+		if ( pc!=pendingPC ) {
+			flush();
+		}
+		pendingPC = pc;
+		pendingLine = line;
+		pendingCharPos = charPos;
+	}
+
+	public byte[] toBytes() {
+		flush();
+		return data.bytes();
+	}
+
+	protected void flush() {
+		if ( pendingPC<0 ) return;
+		writeUnsigned(data, pendingPC - lastPC);
+		writeUnsigned(data, zigzag(pendingLine - lastLine));
+		writeUnsigned(data, pendingCharPos);
+		lastPC = pendingPC;
+		lastLine = pendingLine;
+		pendingPC = -1;
+	}
+
+	/** Remove the dbg instructions from bytecode, adding their locations
+	 *  to table at the address they would have in the stripped code. The
+	 *  operand of each is an index into locations, which holds line and
+	 *  charPos pairs, so that char positions beyond 255 survive. Returns the
+	 *  stripped bytecode. There are no branch instructions, so no addresses
+	 *  within the code need to be patched.
+	 */
+	public static byte[] stripDbgInstructions(byte[] bytecode, LineTable table, List<int[]> locations) {
+		ByteList code = new ByteList(bytecode.length);
+		int ip = 0;
+		while ( ip<bytecode.length ) {
+			int opcode = bytecode[ip];
+			int size = Bytecode.sizeOfInstruction(opcode);
+			if ( opcode==Bytecode.DBG ) {
+				int[] location = locations.get(Bytecode.getInt(bytecode, ip+1+Bytecode.OperandType.LITERAL.sizeInBytes));
+				table.add(code.size(), location[0], location[1]);
+			}
+			else {
+				for (int i=0; i<size; i++) {
+					code.add(bytecode[ip+i]);
+				}
+			}
+			ip += size;
+		}
+		return code.bytes();
+	}
+
+	/** Return the location of the instruction at pc, combined as per
+	 *  {@link Bytecode#combineLineCharPos}, which keeps only the low 8 bits
+	 *  of the char position, or -1 if table has no entry at or before pc.
+	 */
+	public static int lookup(byte[] table, int pc) {
+		int[] location = lookupLocation(table, pc);
+		return location!=null ? Bytecode.combineLineCharPos(location[0], location[1]) : -1;
+	}
+
+	/** Return {line, charPos} of the instruction at pc, or null if table
+	 *  has no entry at or before pc.
+	 */
+	public static int[] lookupLocation(byte[] table, int pc) {
+		int[] found = null;
+		int entryPC = 0;
+		int line = 0;
+		int[] p = {0}; // read position
+		while ( table!=null && p[0]<table.length ) {
+			entryPC += readUnsigned(table, p);
+			line += unzigzag(readUnsigned(table, p));
+			int charPos = readUnsigned(table, p);
+			if ( entryPC>pc ) break;
+			found = new int[] {line, charPos};
+		}
+		return found;
+	}
+
+	/** Return a readable version of table like "0000: 1:2\n0005: 1:10\n" */
+	public static String toString(byte[] table) {
+		StringBuilder buf = new StringBuilder();
+		int entryPC = 0;
+		int line = 0;
+		int[] p = {0};
+		while ( table!=null && p[0]<table.length ) {
+			entryPC += readUnsigned(table, p);
+			line += unzigzag(readUnsigned(table, p));
+			int charPos = readUnsigned(table, p);
+			buf.append(String.format("%04d: %d:%d\n", entryPC, line, charPos));
+		}
+		return buf.toString();
+	}
+
+	protected static void writeUnsigned(ByteList data, int v) {
+		while ( (v & ~0x7F)!=0 ) {
+			data.add((short)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		data.add((short)v);
+	}
+
+	protected static int readUnsigned(byte[] table, int[] p) {
+		int v = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = table[p[0]++] & 0xFF;
+			v |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ( (b & 0x80)!=0 );
+		return v;
+	}
+
+	protected static int zigzag(int v) { return (v << 1) ^ (v >> 31); }
+
+	protected static int unzigzag(int v) { return (v >>> 1) ^ -(v & 1); }
+}
@@ -0,0 +1,125 @@
+package smalltalk.compiler;
+
+/** The registry of primitives known to the compiler and VM. A method
+ *  declared as {@code <primitive:#Integer_ADD>} in Smalltalk code names one
+ *  of these and the compiler emits its {@link #id} in the object file, so
+ *  the VM can dispatch through a dense table rather than by name (see
+ *  {@link smalltalk.compiler.runtime.PrimitiveTable}).
+ *
+ *  IDs are part of the object file format: add new primitives at the end
+ *  with the next ID and never reuse or renumber an existing one.
+ */
+public enum Primitive {
+	Object_Class_ERROR(0),
+	Object_Class_BASICNEW(1),
+	Object_PRINT(2),
+	Object_CLASSNAME(3),
+	Object_ASSTRING(4),
+	Object_SAME(5),
+	Object_HASH(6),
+
+	BlockDescriptor_VALUE(7),
+	BlockDescriptor_VALUE_1_ARG(8),
+	BlockDescriptor_VALUE_2_ARGS(9),
+
+	Character_Class_NEW(10),
+	Character_ASINTEGER(11),
+
+	String_Class_NEW(12),
+	String_CAT(13),
+	String_ASARRAY(14),
+	String_EQ(15),
+
+	Boolean_NOT(16),
+	Boolean_IFTRUE(17),
+	Boolean_IFTRUE_IFFALSE(18),
+
+	Integer_ADD(19),
+	Integer_SUB(20),
+	Integer_MULT(21),
+	Integer_DIV(22),
+	Integer_LT(23),
+	Integer_GT(24),
+	Integer_LE(25),
+	Integer_GE(26),
+	Integer_EQ(27),
+	Integer_MOD(28),
+	Integer_ASFLOAT(29),
+
+	Float_ADD(30),
+	Float_SUB(31),
+	Float_MULT(32),
+	Float_DIV(33),
+	Float_LT(34),
+	Float_GT(35),
+	Float_LE(36),
+	Float_GE(37),
+	Float_EQ(38),
+	Float_ASINTEGER(39),
+
+	Array_Class_NEW(40),
+	Array_SIZE(41),
+	Array_AT(42),
+	Array_AT_PUT(43),
+
+	TranscriptStream_SHOW(44),
+
+	BlockDescriptor_FORK(45),
+	Process_Class_YIELD(46),
+	Process_JOIN(47),
+	Process_TERMINATE(48),
+	Process_ISTERMINATED(49),
+	Semaphore_Class_NEW(50),
+	Semaphore_SIGNAL(51),
+	Semaphore_WAIT(52),
+	SharedQueue_Class_NEW(53),
+	SharedQueue_NEXTPUT(54),
+	SharedQueue_NEXT(55),
+	SharedQueue_SIZE(56),
+	Delay_Class_WAIT(57),
+
+	Array_PARALLEL_DO(58),
+	Array_PARALLEL_COLLECT(59),
+	Array_PARALLEL_INJECT_INTO(60),
+	Array_PARALLEL_SELECT(61);
+
+	/** Stored in the object file for methods that are not primitives */
+	public static final int NONE = -1;
+
+	private static final Primitive[] byID = new Primitive[values().length];
+	static {
+		for (Primitive p : values()) {
+			if ( byID[p.id]!=null ) {
+				throw new ExceptionInInitializerError("duplicate primitive ID "+p.id+": "+byID[p.id]+", "+p);
+			}
+			byID[p.id] = p;
+		}
+	}
+
+	public final int id;
+
+	Primitive(int id) { this.id = id; }
+
+	/** Return the primitive named name, or null if there is none */
+	public static Primitive lookup(String name) {
+		try {
+			return valueOf(name);
+		}
+		catch (IllegalArgumentException iae) {
+			return null;
+		}
+	}
+
+	/** Return the ID of the primitive named name, or {@link #NONE} */
+	public static int idOf(String name) {
+		Primitive p = name!=null ? lookup(name) : null;
+		return p!=null ? p.id : NONE;
+	}
+
+	public static Primitive fromID(int id) {
+		return id>=0 && id<byID.length ? byID[id] : null;
+	}
+
+	/** The size of a table indexed by primitive ID */
+	public static int count() { return byID.length; }
+}
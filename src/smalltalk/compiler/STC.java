@@ -2,16 +2,21 @@ package smalltalk.compiler;
 
 import org.antlr.symtab.ClassSymbol;
 import org.antlr.symtab.Symbol;
-import org.antlr.v4.runtime.misc.Utils;
+import org.antlr.v4.runtime.CharStreams;
 import smalltalk.compiler.symbols.STClass;
 import smalltalk.compiler.symbols.STSymbolTable;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 /** Smalltalk compiler.
  *
@@ -29,8 +34,14 @@ import java.nio.file.Paths;
 public class STC {
 	public static void main(String[] args) throws Exception {
 		int fi = 0;
-		boolean dbg = false;
+		boolean dbg = false; // side line table
+		boolean dbgInline = false; // dbg instructions in the bytecode
 		boolean dis = false; // disassemble
+		boolean tail = false; // tail sends
+		boolean shake = false; // leave out what main can't reach
+		boolean direct = false; // send_direct for selectors with one implementor
+		String profileFileName = null;
+		String changedFiles = null;
 		String outputDir = ".";
 		String stFileName = null;
 
@@ -39,9 +50,29 @@ public class STC {
 				case "-dbg" :
 					dbg = true;
 					break;
+				case "-dbginline" :
+					dbgInline = true;
+					break;
 				case "-dis" :
 					dis = true;
 					break;
+				case "-tail" :
+					tail = true;
+					break;
+				case "-shake" :
+					shake = true;
+					break;
+				case "-direct" :
+					direct = true;
+					break;
+				case "-profile" :
+					fi++;
+					profileFileName = args[fi];
+					break;
+				case "-rebuild" :
+					fi++;
+					changedFiles = args[fi];
+					break;
 				case "-o" :
 					fi++;
 					outputDir = args[fi];
@@ -53,12 +84,45 @@ public class STC {
 			fi++;
 		}
 
+		if ( changedFiles!=null ) { // just print what to recompile
+			DependencyGraph deps = DependencyGraph.load(Paths.get(outputDir));
+			List<String> changed = new ArrayList<>();
+			for (String f : changedFiles.split(",")) {
+				changed.add(DependencyGraph.sourcePath(Paths.get(""), f));
+			}
+			for (String f : deps.filesToRebuild(changed, direct)) {
+				System.out.println(f);
+			}
+			return;
+		}
 		if ( stFileName==null ) {
-			System.err.println("$ java smalltalk.compiler.STC [-dis] [-o outputdir] file.st");
+			System.err.println("$ java smalltalk.compiler.STC [-dbg|-dbginline] [-dis] [-tail] [-direct] [-shake] [-profile profile.json] [-o outputdir] file.st");
+			System.err.println("$ java smalltalk.compiler.STC [-direct] [-o outputdir] -rebuild changed1.st,changed2.st,...");
 			System.exit(1);
 		}
-		STSymbolTable symtab = compile(stFileName, dbg);
-		writeObjectFiles(outputDir, stFileName, symtab);
+		Compiler c = new Compiler();
+		c.genDbg = dbgInline;
+		c.genLineTable = dbg;
+		c.genTailSends = tail;
+		c.devirtualize = direct;
+		if ( profileFileName!=null ) {
+			c.profile = SendProfile.load(Paths.get(profileFileName));
+		}
+		STSymbolTable symtab = compile(c, stFileName);
+		TreeShaker shaker = null;
+		if ( shake ) {
+			shaker = new TreeShaker(symtab);
+			if ( shaker.shake() ) {
+				reportDropped(shaker);
+				Devirtualizer.link(symtab, shaker::isReachable); // method indexes shift
+			}
+			else {
+				System.err.println("no main to shake from; writing all classes");
+				shaker = null;
+			}
+		}
+		writeObjectFiles(outputDir, stFileName, symtab, shaker);
+		writeDependencies(outputDir, DependencyGraph.sourcePath(Paths.get(""), stFileName), symtab);
 		if ( dis ) {
 			disassembleOutput(outputDir, stFileName, symtab);
 		}
@@ -74,14 +138,42 @@ public class STC {
 	}
 
 	public static void writeObjectFiles(String dir, String stFileName, STSymbolTable symtab) throws IOException {
+		writeObjectFiles(dir, stFileName, symtab, null);
+	}
+
+	/** Write an object file per class, or if shaker is not null, only for
+	 *  the classes and methods it found reachable.
+	 */
+	public static void writeObjectFiles(String dir, String stFileName, STSymbolTable symtab,
+	                                    TreeShaker shaker)
+		throws IOException
+	{
 		for (Symbol s : symtab.GLOBALS.getSymbols()) {
 			if ( s instanceof ClassSymbol ) {
-				String obj = ((STClass) s).serialize().toString();
+				STClass cls = (STClass) s;
+				if ( shaker!=null && !shaker.isReachable(cls) ) continue;
+				String obj = (shaker!=null ? cls.serialize(shaker::isReachable) : cls.serialize()).toString();
 				Files.write(Paths.get(dir, s.getName()+".sto"), obj.getBytes());
 			}
 		}
 	}
 
+	public static void reportDropped(TreeShaker shaker) {
+		List<String> classes = shaker.getDroppedClasses();
+		List<String> methods = shaker.getDroppedMethods();
+		System.out.println("dropped "+classes.size()+" unreachable classes: "+String.join(" ", classes));
+		System.out.println("dropped "+methods.size()+" unreachable methods: "+String.join(" ", methods));
+	}
+
+	/** Add the dependencies of the classes in symtab, compiled from
+	 *  sourcePath, to those recorded in dir by previous compilations.
+	 */
+	public static void writeDependencies(String dir, String sourcePath, STSymbolTable symtab) throws IOException {
+		DependencyGraph deps = DependencyGraph.load(Paths.get(dir));
+		deps.merge(DependencyGraph.build(symtab, sourcePath));
+		deps.write(Paths.get(dir));
+	}
+
 	public static STSymbolTable compile(String fileName, boolean genDbg) {
 		STSymbolTable symtab = new STSymbolTable();
 		compile(symtab, fileName, genDbg);
@@ -89,6 +181,16 @@ public class STC {
 	}
 
 	public static STSymbolTable compile(STSymbolTable symtab, String fileName, boolean genDbg) {
+		return compile(symtab, fileName, genDbg, false);
+	}
+
+	/** Compile fileName into symtab. If genLineTable, record source
+	 *  locations in a line table per compiled block rather than in dbg
+	 *  instructions.
+	 */
+	public static STSymbolTable compile(STSymbolTable symtab, String fileName,
+	                                    boolean genDbg, boolean genLineTable)
+	{
 		Compiler c;
 		if ( symtab!=null ) {
 			c = new Compiler(symtab);
@@ -97,14 +199,27 @@ public class STC {
 			c = new Compiler();
 		}
 		c.genDbg = genDbg;
+		c.genLineTable = genLineTable;
+		return compile(c, fileName);
+	}
 
+	/** Compile fileName with a compiler whose options are already set */
+	public static STSymbolTable compile(Compiler c, String fileName) {
+		STSymbolTable symtab;
 		URL imageURL = getFileURL(fileName);
 		try {
-			fileName = Paths.get(fileName).getFileName().toString();
-			symtab = c.compile(fileName, new String(Utils.readFile(imageURL.getFile())));
+			if ( imageURL.getProtocol().equals("file") ) {
+				symtab = c.compile(Paths.get(imageURL.toURI()));
+			}
+			else { // e.g., in a jar
+				fileName = Paths.get(fileName).getFileName().toString();
+				try (InputStream in = imageURL.openStream()) {
+					symtab = c.compile(fileName, CharStreams.fromStream(in, StandardCharsets.UTF_8));
+				}
+			}
 			// TODO: semantic checks for unknown vars/fields
 		}
-		catch (IOException e ) {
+		catch (IOException | URISyntaxException e ) {
 			throw new RuntimeException("can't load "+imageURL, e);
 		}
 		if ( c.errors.size()>0 ) {
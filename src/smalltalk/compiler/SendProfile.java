@@ -0,0 +1,109 @@
+package smalltalk.compiler;
+
+import javax.json.Json;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Execution counts recorded by the VM with a
+ *  {@link smalltalk.compiler.runtime.SendProfiler} and read back by STC's
+ *  -profile option. The profile has the form:
+ *
+ *  <pre>
+ *  {"methods":[
+ *     {"class":"Integer", "name":"Integer>>fact", "invocations":1000,
+ *      "sites":[{"pc":12, "count":1000, "receivers":{"Integer":1000}}, ...]},
+ *     ...]}
+ *  </pre>
+ *
+ *  where class and name are a compiled block's enclosing class and
+ *  qualifiedName and pc is the address of a send within its bytecode. The
+ *  class is needed since block names like do:>>do:-block0 don't include it.
+ *  A profile only makes sense for code compiled with the same options as
+ *  the code that was profiled.
+ */
+public class SendProfile {
+	/** Counts for one send site */
+	public static class Site {
+		public final long count;
+		/** Receiver class names, most frequent first */
+		public final List<String> receivers;
+
+		public Site(long count, List<String> receivers) {
+			this.count = count;
+			this.receivers = receivers;
+		}
+	}
+
+	protected final Map<String, Long> invocations = new HashMap<>();
+	protected final Map<String, Map<Integer, Site>> sites = new HashMap<>();
+
+	public static SendProfile load(Path path) throws IOException {
+		try (Reader r = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+		     JsonReader json = Json.createReader(r))
+		{
+			return fromJson(json.readObject());
+		}
+	}
+
+	public static SendProfile fromJson(JsonObject profile) {
+		SendProfile p = new SendProfile();
+		for (JsonValue mv : profile.getJsonArray("methods")) {
+			JsonObject m = (JsonObject)mv;
+			String name = key(m.getString("class"), m.getString("name"));
+			p.invocations.put(name, m.getJsonNumber("invocations").longValue());
+			Map<Integer, Site> methodSites = new HashMap<>();
+			for (JsonValue sv : m.getJsonArray("sites")) {
+				JsonObject s = (JsonObject)sv;
+				Map<String, Long> counts = new HashMap<>();
+				for (Map.Entry<String, JsonValue> e : s.getJsonObject("receivers").entrySet()) {
+					counts.put(e.getKey(), ((JsonNumber)e.getValue()).longValue());
+				}
+				List<String> receivers = new ArrayList<>(counts.keySet());
+				receivers.sort((a, b) -> {
+					int c = Long.compare(counts.get(b), counts.get(a));
+					return c!=0 ? c : a.compareTo(b);
+				});
+				methodSites.put(s.getInt("pc"),
+				                new Site(s.getJsonNumber("count").longValue(), receivers));
+			}
+			p.sites.put(name, methodSites);
+		}
+		return p;
+	}
+
+	/** Return how many times the block or method named qualifiedName in
+	 *  className ran.
+	 */
+	public long getInvocations(String className, String qualifiedName) {
+		return invocations.getOrDefault(key(className, qualifiedName), 0L);
+	}
+
+	/** Return the receiver classes seen by the send at pc in qualifiedName
+	 *  in className, most frequent first; empty if the send never ran.
+	 */
+	public List<String> getReceivers(String className, String qualifiedName, int pc) {
+		Site s = getSite(className, qualifiedName, pc);
+		return s!=null ? s.receivers : Collections.emptyList();
+	}
+
+	public Site getSite(String className, String qualifiedName, int pc) {
+		Map<Integer, Site> methodSites = sites.get(key(className, qualifiedName));
+		return methodSites!=null ? methodSites.get(pc) : null;
+	}
+
+	protected static String key(String className, String qualifiedName) {
+		return className+" "+qualifiedName;
+	}
+}
@@ -0,0 +1,320 @@
+package smalltalk.compiler;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A hand-written replacement for the generated {@link SmalltalkLexer},
+ *  producing the same tokens, with the same types, indexes and positions,
+ *  for {@link SmalltalkParser}. It decides each token from a character or
+ *  two of lookahead, without the generated lexer's ATN/DFA machinery, and
+ *  never creates tokens for whitespace and comments, which the parser
+ *  ignores anyway. Token text is left null so the token computes it from
+ *  the input when asked, which the parser only does for a few tokens.
+ *
+ *  Like SmalltalkLexer, it splits x:= into ID and ASSIGN. The token types
+ *  of literals such as 'class' and '+' come from the generated lexer's
+ *  vocabulary, so grammar changes that only add literals need no change
+ *  here; new lexer rules must be added to both.
+ *
+ *  Errors are recovered from as SmalltalkLexer does: upon the first
+ *  character that can't continue a token, such as the ( of #( or a
+ *  character no token starts with, it reports a token recognition error
+ *  for the text up to and including that character and skips it all. An
+ *  unterminated string or comment is reported and skipped up to the end
+ *  of input, where SmalltalkLexer instead throws an exception from the
+ *  ANTLR runtime's CharStream.getText unless it starts the input.
+ */
+public class SmalltalkScanner implements TokenSource {
+	/** Token type of each single-character literal such as '+', or 0 */
+	protected static final int[] charTypes = new int[128];
+	/** Token type of each multi-character literal such as 'class' */
+	protected static final Map<String, Integer> wordTypes = new HashMap<>();
+	static {
+		Vocabulary vocab = SmalltalkLexer.VOCABULARY;
+		for (int t = 1; t<=vocab.getMaxTokenType(); t++) {
+			String literal = vocab.getLiteralName(t);
+			if ( literal==null ) continue;
+			literal = literal.substring(1, literal.length()-1).replace("\\\\", "\\");
+			if ( literal.length()==1 ) {
+				charTypes[literal.charAt(0)] = t;
+			}
+			else {
+				wordTypes.put(literal, t);
+			}
+		}
+	}
+
+	protected final CharStream input;
+	protected final Pair<TokenSource, CharStream> source;
+	protected TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+	protected final List<ANTLRErrorListener> listeners = new ArrayList<>();
+
+	protected int line = 1;
+	protected int charPositionInLine = 0;
+
+	/** The ASSIGN half of an x:= */
+	protected Token pendingAssign;
+
+	protected int numberOfErrors = 0;
+
+	public SmalltalkScanner(CharStream input) {
+		this.input = input;
+		this.source = new Pair<>(this, input);
+		listeners.add(ConsoleErrorListener.INSTANCE);
+	}
+
+	@Override
+	public Token nextToken() {
+		if ( pendingAssign!=null ) {
+			Token t = pendingAssign;
+			pendingAssign = null;
+			return t;
+		}
+		while ( true ) {
+			int c = input.LA(1);
+			int start = input.index();
+			int startLine = line;
+			int startPos = charPositionInLine;
+			switch ( c ) {
+				case IntStream.EOF :
+					return create(Token.EOF, start, start-1, startLine, startPos);
+				case ' ' :
+				case '\t' :
+				case '\n' :
+					consume();
+					continue;
+				case '"' :
+					if ( !quoted('"') ) {
+						recover(start, startLine, startPos);
+					}
+					continue; // comments are hidden
+				case '\'' :
+					if ( !quoted('\'') ) {
+						recover(start, startLine, startPos);
+						continue;
+					}
+					return create(SmalltalkLexer.STRING, start, startLine, startPos);
+				case '$' :
+					int ch = input.LA(2);
+					if ( ch==IntStream.EOF || ch=='@' || ch=='\n' || ch=='\t' || ch==' ' ) {
+						consume();
+						recover(start, startLine, startPos);
+						continue;
+					}
+					consume();
+					consume();
+					return create(SmalltalkLexer.CHAR, start, startLine, startPos);
+				case '#' :
+					if ( !isIDStart(input.LA(2)) ) {
+						consume();
+						recover(start, startLine, startPos);
+						continue;
+					}
+					consume();
+					identifier();
+					return create(SmalltalkLexer.SYMBOL, start, startLine, startPos);
+				case '-' :
+					if ( !isDigit(input.LA(2)) ) break;
+					consume();
+					number();
+					return create(SmalltalkLexer.NUMBER, start, startLine, startPos);
+				case ':' :
+					if ( input.LA(2)!='=' ) break;
+					consume();
+					consume();
+					return create(SmalltalkLexer.ASSIGN, start, startLine, startPos);
+				default :
+					if ( isDigit(c) ) {
+						number();
+						return create(SmalltalkLexer.NUMBER, start, startLine, startPos);
+					}
+					if ( isIDStart(c) ) {
+						return word(start, startLine, startPos);
+					}
+			}
+			if ( c>=0 && c<charTypes.length && charTypes[c]!=0 ) {
+				consume();
+				return create(charTypes[c], start, startLine, startPos);
+			}
+			recover(start, startLine, startPos);
+		}
+	}
+
+	/** Match an ID, KEYWORD, x:= or a literal like 'self' or 'primitive:' */
+	protected Token word(int start, int startLine, int startPos) {
+		identifier();
+		if ( input.LA(1)==':' ) {
+			if ( input.LA(2)=='=' ) {
+				int stop = input.index()-1;
+				Token id = create(SmalltalkLexer.ID, start, startLine, startPos);
+				consume();
+				consume();
+				pendingAssign = create(SmalltalkLexer.ASSIGN, stop+1, startLine,
+				                       startPos+stop+1-start);
+				return id;
+			}
+			consume();
+			return create(wordType(start, SmalltalkLexer.KEYWORD), start, startLine, startPos);
+		}
+		return create(wordType(start, SmalltalkLexer.ID), start, startLine, startPos);
+	}
+
+	/** Return the type of the literal matched since start, if any, else defaultType */
+	protected int wordType(int start, int defaultType) {
+		int n = input.index() - start;
+		if ( n<3 || n>10 ) return defaultType; // 'nil' .. 'primitive:'
+		Integer t = wordTypes.get(input.getText(Interval.of(start, input.index()-1)));
+		return t!=null ? t : defaultType;
+	}
+
+	protected void identifier() {
+		consume();
+		while ( isIDStart(input.LA(1)) || isDigit(input.LA(1)) ) {
+			consume();
+		}
+	}
+
+	protected void number() {
+		while ( isDigit(input.LA(1)) ) {
+			consume();
+		}
+		if ( input.LA(1)=='.' && isDigit(input.LA(2)) ) {
+			consume();
+			while ( isDigit(input.LA(1)) ) {
+				consume();
+			}
+		}
+	}
+
+	/** Match a comment or string delimited by quote, in which a doubled
+	 *  quote stands for the quote itself. If the input ends first, back up
+	 *  to just after the last quote that could have ended it, as the
+	 *  generated lexer does, so 'it''s yields 'it'. Return false if there
+	 *  is no such quote.
+	 */
+	protected boolean quoted(int quote) {
+		consume();
+		int end = -1, endLine = 0, endPos = 0;
+		while ( true ) {
+			int c = input.LA(1);
+			if ( c==IntStream.EOF ) {
+				if ( end<0 ) return false;
+				seek(end, endLine, endPos);
+				return true;
+			}
+			consume();
+			if ( c==quote ) {
+				if ( input.LA(1)!=quote ) return true;
+				end = input.index();
+				endLine = line;
+				endPos = charPositionInLine;
+				consume();
+			}
+		}
+	}
+
+	/** Continue scanning at index, which is at the given line and
+	 *  position in line, such as to rescan part of an edited document.
+	 */
+	public void seek(int index, int line, int charPositionInLine) {
+		input.seek(index);
+		this.line = line;
+		this.charPositionInLine = charPositionInLine;
+		pendingAssign = null;
+	}
+
+	protected void consume() {
+		if ( input.LA(1)=='\n' ) {
+			line++;
+			charPositionInLine = 0;
+		}
+		else {
+			charPositionInLine++;
+		}
+		input.consume();
+	}
+
+	protected static boolean isIDStart(int c) {
+		return c>='a' && c<='z' || c>='A' && c<='Z' || c=='_';
+	}
+
+	protected static boolean isDigit(int c) {
+		return c>='0' && c<='9';
+	}
+
+	/** Create a token from start up to the current input position */
+	protected Token create(int type, int start, int line, int charPositionInLine) {
+		return create(type, start, input.index()-1, line, charPositionInLine);
+	}
+
+	protected Token create(int type, int start, int stop, int line, int charPositionInLine) {
+		return factory.create(source, type, null, Token.DEFAULT_CHANNEL,
+		                      start, stop, line, charPositionInLine);
+	}
+
+	/** Report the text from start through the next character, which can't
+	 *  continue the token, and skip that character unless at end of input.
+	 */
+	protected void recover(int start, int line, int charPositionInLine) {
+		numberOfErrors++;
+		String text = input.getText(Interval.of(start, Math.min(input.index(), input.size()-1)));
+		StringBuilder buf = new StringBuilder();
+		for (char c : text.toCharArray()) {
+			switch ( c ) {
+				case '\n' : buf.append("\\n"); break;
+				case '\t' : buf.append("\\t"); break;
+				case '\r' : buf.append("\\r"); break;
+				default : buf.append(c);
+			}
+		}
+		String msg = "token recognition error at: '"+buf+"'";
+		for (ANTLRErrorListener listener : listeners) {
+			listener.syntaxError(null, null, line, charPositionInLine, msg, null);
+		}
+		if ( input.LA(1)!=IntStream.EOF ) {
+			consume();
+		}
+	}
+
+	public void addErrorListener(ANTLRErrorListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeErrorListeners() {
+		listeners.clear();
+	}
+
+	public int getNumberOfErrors() { return numberOfErrors; }
+
+	@Override
+	public int getLine() { return line; }
+
+	@Override
+	public int getCharPositionInLine() { return charPositionInLine; }
+
+	@Override
+	public CharStream getInputStream() { return input; }
+
+	@Override
+	public String getSourceName() { return input.getSourceName(); }
+
+	@Override
+	public void setTokenFactory(TokenFactory<?> factory) { this.factory = factory; }
+
+	@Override
+	public TokenFactory<?> getTokenFactory() { return factory; }
+}
@@ -0,0 +1,144 @@
+package smalltalk.compiler;
+
+import org.antlr.symtab.MethodSymbol;
+import org.antlr.symtab.Symbol;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Find the classes and methods a whole program can reach from
+ *  MainClass>>main so STC -shake can leave out the rest.
+ *
+ *  The analysis is conservative since sends are dynamically bound. A
+ *  class is reachable if a reachable method pushes its name, if it is the
+ *  superclass of a reachable class, or if the VM creates its instances
+ *  without the program naming it, as for literals and blocks. A selector
+ *  is reachable if a reachable method sends it or pushes it as a literal,
+ *  or if the VM or a primitive sends it. A method is kept if its class and
+ *  selector are both reachable, whatever the receiver would be.
+ */
+public class TreeShaker {
+	/** Classes the VM instantiates itself: nil, booleans, literals,
+	 *  {...} arrays, blocks, Transcript and the processes fork creates.
+	 */
+	public static final List<String> KERNEL_CLASSES = Collections.unmodifiableList(Arrays.asList(
+		"Object", "UndefinedObject", "Boolean", "Character", "String", "Integer",
+		"Float", "Array", "BlockDescriptor", "TranscriptStream", "Process"
+	));
+
+	/** Selectors sent by the VM or primitives rather than by bytecode */
+	public static final List<String> IMPLICIT_SELECTORS = Collections.unmodifiableList(Arrays.asList(
+		"main", "initialize", "initialize:", "asString", "print", "=", "hash",
+		"value", "value:", "value:value:", "error:"
+	));
+
+	protected final STSymbolTable symtab;
+	public final Set<String> reachableClasses = new LinkedHashSet<>();
+	public final Set<String> reachableSelectors = new LinkedHashSet<>();
+
+	public TreeShaker(STSymbolTable symtab) {
+		this.symtab = symtab;
+	}
+
+	/** Compute what MainClass>>main can reach; return false, keeping
+	 *  everything, if there is no main.
+	 */
+	public boolean shake() {
+		if ( !(symtab.GLOBALS.resolve("MainClass") instanceof STClass) ) return false;
+		List<STClass> work = new ArrayList<>();
+		addClass("MainClass", work);
+		for (String c : KERNEL_CLASSES) addClass(c, work);
+		reachableSelectors.addAll(IMPLICIT_SELECTORS);
+
+		// A new selector can make methods of classes already seen reachable,
+		// so rescan until nothing changes.
+		Set<MethodSymbol> scanned = Collections.newSetFromMap(new IdentityHashMap<>());
+		boolean changed = true;
+		while ( changed ) {
+			changed = false;
+			for (int i = 0; i<work.size(); i++) {
+				for (MethodSymbol m : work.get(i).getDefinedMethods()) {
+					if ( scanned.contains(m) || !reachableSelectors.contains(m.getName()) ) continue;
+					scanned.add(m);
+					changed = true;
+					STCompiledBlock method = ((STMethod) m).compiledBlock;
+					if ( method==null ) continue;
+					String[] literals = work.get(i).stringTable.toArray();
+					scan(method.bytecode, literals, work);
+					if ( method.blocks!=null ) {
+						for (STCompiledBlock blk : method.blocks) {
+							scan(blk.bytecode, literals, work);
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	protected void scan(byte[] bytecode, String[] literals, List<STClass> work) {
+		int ip = 0;
+		while ( bytecode!=null && ip<bytecode.length ) {
+			int opcode = bytecode[ip];
+			if ( opcode==Bytecode.PUSH_GLOBAL ) {
+				addClass(literals[Bytecode.getShort(bytecode, ip+1)], work);
+			}
+			else if ( opcode==Bytecode.PUSH_LITERAL ) { // perhaps a #selector
+				reachableSelectors.add(literals[Bytecode.getShort(bytecode, ip+1)]);
+			}
+			else if ( Bytecode.isSend(opcode) ) { // nargs, selector
+				reachableSelectors.add(literals[Bytecode.getShort(bytecode, ip+3)]);
+			}
+			ip += Bytecode.sizeOfInstruction(opcode);
+		}
+	}
+
+	/** Mark the class called name and its superclasses reachable */
+	protected void addClass(String name, List<STClass> work) {
+		while ( name!=null && !reachableClasses.contains(name) ) {
+			Symbol s = symtab.GLOBALS.resolve(name);
+			if ( !(s instanceof STClass) ) return;
+			reachableClasses.add(name);
+			work.add((STClass) s);
+			name = ((STClass) s).getSuperClassName();
+		}
+	}
+
+	public boolean isReachable(STClass cls) {
+		return reachableClasses.contains(cls.getName());
+	}
+
+	public boolean isReachable(STMethod m) {
+		return reachableSelectors.contains(m.getName());
+	}
+
+	/** Return the names of the classes left out */
+	public List<String> getDroppedClasses() {
+		List<String> dropped = new ArrayList<>();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( s instanceof STClass && !isReachable((STClass) s) ) dropped.add(s.getName());
+		}
+		return dropped;
+	}
+
+	/** Return the methods of reachable classes left out, like T>>foo */
+	public List<String> getDroppedMethods() {
+		List<String> dropped = new ArrayList<>();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( !(s instanceof STClass) || !isReachable((STClass) s) ) continue;
+			for (MethodSymbol m : ((STClass) s).getDefinedMethods()) {
+				if ( !isReachable((STMethod) m) ) dropped.add(s.getName()+">>"+m.getName());
+			}
+		}
+		return dropped;
+	}
+}
@@ -0,0 +1,142 @@
+package smalltalk.compiler.runtime;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/** The backing store of a Smalltalk Array (Array_Class_NEW, Array_AT,
+ *  Array_AT_PUT), which picks its representation from what's stored in it.
+ *  A new array holds only nil and has no storage. The first non-nil
+ *  element decides the strategy: an int[] for Integers, a float[] for
+ *  Floats, and otherwise an Object[]. Storing an element the current
+ *  strategy can't hold, such as a String into an int array, copies the
+ *  elements into an Object[] for good; nil fits any strategy. An array of
+ *  a million Integers then takes 4MB instead of a million STIntegers.
+ *
+ *  Indexes are 0-based; the primitives translate and check Smalltalk's
+ *  1-based indexes. {@link Boxing} tells us how the VM represents nil,
+ *  Integers and Floats.
+ */
+public class ArrayStorage {
+	public enum Strategy { EMPTY, INTEGER, FLOAT, OBJECT }
+
+	/** Conversions between the VM's objects and Java values */
+	public interface Boxing {
+		Object nil();
+		boolean isInteger(Object o);
+		int intValue(Object o);
+		Object boxInt(int v);
+		boolean isFloat(Object o);
+		float floatValue(Object o);
+		Object boxFloat(float v);
+	}
+
+	protected final Boxing boxing;
+	protected final int size;
+	protected Strategy strategy = Strategy.EMPTY;
+
+	protected int[] ints;
+	protected float[] floats;
+	/** Which slots of ints or floats hold nil */
+	protected BitSet nils;
+	protected Object[] objects;
+
+	public ArrayStorage(int size, Boxing boxing) {
+		this.size = size;
+		this.boxing = boxing;
+	}
+
+	public int size() { return size; }
+
+	public Strategy getStrategy() { return strategy; }
+
+	public Object at(int i) {
+		switch ( strategy ) {
+			case INTEGER :
+				return nils.get(i) ? boxing.nil() : boxing.boxInt(ints[i]);
+			case FLOAT :
+				return nils.get(i) ? boxing.nil() : boxing.boxFloat(floats[i]);
+			case OBJECT :
+				return objects[i];
+			default :
+				if ( i<0 || i>=size ) throw new ArrayIndexOutOfBoundsException(i);
+				return boxing.nil();
+		}
+	}
+
+	public void atPut(int i, Object v) {
+		if ( i<0 || i>=size ) throw new ArrayIndexOutOfBoundsException(i);
+		boolean isNil = v==boxing.nil();
+		switch ( strategy ) {
+			case EMPTY :
+				if ( isNil ) return;
+				if ( boxing.isInteger(v) ) {
+					ints = new int[size];
+					strategy = Strategy.INTEGER;
+				}
+				else if ( boxing.isFloat(v) ) {
+					floats = new float[size];
+					strategy = Strategy.FLOAT;
+				}
+				else {
+					objects = new Object[size];
+					Arrays.fill(objects, boxing.nil());
+					strategy = Strategy.OBJECT;
+					objects[i] = v;
+					return;
+				}
+				nils = new BitSet(size);
+				nils.set(0, size);
+				atPut(i, v);
+				return;
+			case INTEGER :
+				if ( isNil ) {
+					nils.set(i);
+				}
+				else if ( boxing.isInteger(v) ) {
+					ints[i] = boxing.intValue(v);
+					nils.clear(i);
+				}
+				else {
+					generalize();
+					objects[i] = v;
+				}
+				return;
+			case FLOAT :
+				if ( isNil ) {
+					nils.set(i);
+				}
+				else if ( boxing.isFloat(v) ) {
+					floats[i] = boxing.floatValue(v);
+					nils.clear(i);
+				}
+				else {
+					generalize();
+					objects[i] = v;
+				}
+				return;
+			case OBJECT :
+				objects[i] = v;
+		}
+	}
+
+	/** Return the elements as objects, such as for the Array_PARALLEL_*
+	 *  primitives. Shares the backing store under the OBJECT strategy.
+	 */
+	public Object[] toObjectArray() {
+		if ( strategy==Strategy.OBJECT ) return objects;
+		Object[] a = new Object[size];
+		for (int i = 0; i<size; i++) {
+			a[i] = at(i);
+		}
+		return a;
+	}
+
+	/** Switch to the OBJECT strategy */
+	protected void generalize() {
+		objects = toObjectArray();
+		strategy = Strategy.OBJECT;
+		ints = null;
+		floats = null;
+		nils = null;
+	}
+}
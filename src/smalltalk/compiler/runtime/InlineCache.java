@@ -0,0 +1,125 @@
+package smalltalk.compiler.runtime;
+
+import java.util.Arrays;
+import java.util.function.Function;
+
+/** A per-send-site method cache for the VM. The compiler numbers the send
+ *  sites of each compiled block (see {@link smalltalk.compiler.symbols.STCompiledBlock#sendSites})
+ *  and the VM allocates one of these per slot.
+ *
+ *  A site starts out empty, becomes monomorphic after the first lookup,
+ *  and grows into a polymorphic cache of up to {@link #MAX_ENTRIES}
+ *  receiver classes. A site that sees more classes than that is megamorphic:
+ *  it stops caching and sends every lookup to the fallback, which should be
+ *  the VM's global {@link MethodCache}.
+ *
+ *  C is the VM's class object (e.g., STMetaClassObject) and M is its
+ *  compiled method. Classes are compared by identity.
+ */
+public class InlineCache<C,M> {
+	public static final int MAX_ENTRIES = 4;
+
+	public enum State { EMPTY, MONOMORPHIC, POLYMORPHIC, MEGAMORPHIC }
+
+	protected final Object[] classes = new Object[MAX_ENTRIES];
+	protected final Object[] methods = new Object[MAX_ENTRIES];
+	protected int n = 0;
+	protected boolean megamorphic = false;
+
+	protected long hits = 0;
+	protected long misses = 0;
+
+	/** Return the method cached for receiver class cls; upon a miss, ask
+	 *  fallback and remember the answer. A null answer (message not
+	 *  understood) is never cached.
+	 */
+	@SuppressWarnings("unchecked")
+	public M lookup(C cls, Function<? super C, ? extends M> fallback) {
+		if ( !megamorphic ) {
+			for (int i=0; i<n; i++) {
+				if ( classes[i]==cls ) {
+					hits++;
+					return (M)methods[i];
+				}
+			}
+		}
+		misses++;
+		M m = fallback.apply(cls);
+		if ( m!=null && !megamorphic ) {
+			if ( n<MAX_ENTRIES ) {
+				classes[n] = cls;
+				methods[n] = m;
+				n++;
+			}
+			else {
+				megamorphic = true;
+				clearEntries();
+			}
+		}
+		return m;
+	}
+
+	/** Fill an entry before the first send, such as from the receiver
+	 *  classes the compiler found in a profile; more than {@link #MAX_ENTRIES}
+	 *  makes the site megamorphic. Doesn't count as a miss.
+	 */
+	public void seed(C cls, M m) {
+		if ( megamorphic ) return;
+		for (int i=0; i<n; i++) {
+			if ( classes[i]==cls ) return;
+		}
+		if ( n<MAX_ENTRIES ) {
+			classes[n] = cls;
+			methods[n] = m;
+			n++;
+		}
+		else {
+			megamorphic = true;
+			clearEntries();
+		}
+	}
+
+	/** The state of a cache that has seen nclasses receiver classes */
+	public static State shapeFor(int nclasses) {
+		if ( nclasses>MAX_ENTRIES ) return State.MEGAMORPHIC;
+		switch ( nclasses ) {
+			case 0 : return State.EMPTY;
+			case 1 : return State.MONOMORPHIC;
+			default : return State.POLYMORPHIC;
+		}
+	}
+
+	/** Forget all cached classes, such as after a method is (re)defined.
+	 *  The hit/miss counters are preserved.
+	 */
+	public void flush() {
+		megamorphic = false;
+		clearEntries();
+	}
+
+	public State getState() {
+		return megamorphic ? State.MEGAMORPHIC : shapeFor(n);
+	}
+
+	public int getNumberOfEntries() { return n; }
+
+	public long getHits() { return hits; }
+
+	public long getMisses() { return misses; }
+
+	public void resetCounters() {
+		hits = 0;
+		misses = 0;
+	}
+
+	protected void clearEntries() {
+		Arrays.fill(classes, null);
+		Arrays.fill(methods, null);
+		n = 0;
+	}
+
+	@Override
+	public String toString() {
+		return getState()+" hits="+hits+" misses="+misses;
+	}
+}
@@ -0,0 +1,29 @@
+package smalltalk.compiler.runtime;
+
+/** Defines the JVM classes generated for hot Smalltalk methods. Keeping
+ *  them in a dedicated loader, rather than the VM's own, lets the JVM
+ *  unload a generation of translated code by dropping the loader.
+ *
+ *  The loader also carries the {@link SendCallSite.Linker} of the VM the
+ *  code belongs to, which {@link SendCallSite#bootstrap} finds through the
+ *  class of each invokedynamic instruction, so that several VMs in one
+ *  JVM each link their sends against their own methods.
+ */
+public class JITClassLoader extends ClassLoader {
+	/** Links the sends of the classes defined here; null if they make none */
+	public final SendCallSite.Linker linker;
+
+	public JITClassLoader(ClassLoader parent) {
+		this(parent, null);
+	}
+
+	public JITClassLoader(ClassLoader parent, SendCallSite.Linker linker) {
+		super(parent);
+		this.linker = linker;
+	}
+
+	/** Define a class from the bytes of a class file; name uses '.' separators */
+	public Class<?> define(String name, byte[] classFile) {
+		return defineClass(name, classFile, 0, classFile.length);
+	}
+}
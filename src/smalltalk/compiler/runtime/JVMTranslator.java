@@ -0,0 +1,321 @@
+package smalltalk.compiler.runtime;
+
+import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.symbols.STCompiledBlock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Translates the bytecode of a compiled method to a JVM class with one
+ *  static method, run(self, arg1, ...), which {@link TieredCompilation}
+ *  hands back to the VM as a MethodHandle. Each send becomes an
+ *  invokedynamic instruction bound by {@link SendCallSite#bootstrap} to the
+ *  linker of the {@link JITClassLoader} the class is defined in, so
+ *  HotSpot can inline across sends once the call sites link.
+ *
+ *  Our bytecode has no jumps, so a method is one basic block and the class
+ *  needs no stack map frames. Only methods whose instructions all have a
+ *  direct JVM equivalent are translated: constants, self, the method's
+ *  own arguments and locals, pop, sends and return. Anything touching
+ *  fields, globals, blocks, outer contexts or super, and primitives, is
+ *  left to the interpreter. The translated code represents nil as null,
+ *  true and false as Boolean, numbers and characters as boxed Java values
+ *  and string literals as String; the VM's {@link SendCallSite.Linker}
+ *  must use the same representation.
+ */
+public class JVMTranslator implements TieredCompilation.Translator<STCompiledBlock> {
+	public static final String METHOD_NAME = "run";
+
+	protected static final AtomicInteger classNumber = new AtomicInteger();
+
+	@Override
+	public MethodHandle translate(STCompiledBlock m, JITClassLoader loader) {
+		String className = "smalltalk.jit.Method"+classNumber.incrementAndGet();
+		byte[] classFile = toClassFile(m, className.replace('.', '/'));
+		if ( classFile==null ) return null;
+		try {
+			Class<?> c = loader.define(className, classFile);
+			return MethodHandles.publicLookup().findStatic(c, METHOD_NAME, methodType(m.nargs));
+		}
+		catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	public static MethodType methodType(int nargs) {
+		return MethodType.genericMethodType(nargs+1); // self plus arguments
+	}
+
+	/** Return the class file for m, or null if m can't be translated */
+	public byte[] toClassFile(STCompiledBlock m, String internalName) {
+		if ( m.bytecode==null || m.blockKind!=null || m.primitiveName!=null ) return null;
+		ConstantPool pool = new ConstantPool();
+		int thisClass = pool.classRef(internalName);
+		int superClass = pool.classRef("java/lang/Object");
+		MethodBody body = translateBody(m, pool);
+		if ( body==null ) return null;
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			int methodName = pool.utf8(METHOD_NAME);
+			int descriptor = pool.utf8(methodType(m.nargs).toMethodDescriptorString());
+			int codeAttr = pool.utf8("Code");
+			int bootstrapAttr = pool.utf8("BootstrapMethods");
+
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(51); // Java 7: invokedynamic, and no frames needed without jumps
+			pool.write(out);
+			out.writeShort(0x0021); // public super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); // interfaces
+			out.writeShort(0); // fields
+
+			out.writeShort(1); // methods
+			out.writeShort(0x0009); // public static
+			out.writeShort(methodName);
+			out.writeShort(descriptor);
+			out.writeShort(1); // attributes
+			out.writeShort(codeAttr);
+			out.writeInt(12+body.code.length);
+			out.writeShort(body.maxStack);
+			out.writeShort(body.maxLocals);
+			out.writeInt(body.code.length);
+			out.write(body.code);
+			out.writeShort(0); // exception table
+			out.writeShort(0); // attributes
+
+			out.writeShort(1); // class attributes
+			out.writeShort(bootstrapAttr);
+			out.writeInt(2+pool.bootstrapMethods.size()*6);
+			out.writeShort(pool.bootstrapMethods.size());
+			for (int[] bsm : pool.bootstrapMethods) {
+				out.writeShort(bsm[0]);
+				out.writeShort(1);
+				out.writeShort(bsm[1]);
+			}
+			return bytes.toByteArray();
+		}
+		catch (IOException e) { // can't happen writing to memory
+			throw new RuntimeException(e);
+		}
+	}
+
+	protected static class MethodBody {
+		byte[] code;
+		int maxStack;
+		int maxLocals;
+	}
+
+	protected MethodBody translateBody(STCompiledBlock m, ConstantPool pool) {
+		String[] literals = m.enclosingClass.stringTable.toArray();
+		int nlocals = m.nargs+m.nlocals;
+		if ( nlocals+1>255 ) return null;
+		Code code = new Code();
+		for (int i = m.nargs; i<nlocals; i++) { // locals start out nil
+			code.op(ACONST_NULL, 1);
+			code.op(ASTORE, -1).u1(i+1);
+		}
+		byte[] b = m.bytecode;
+		int ip = 0;
+		boolean returned = false;
+		while ( ip<b.length && !returned ) {
+			int opcode = b[ip];
+			switch ( opcode ) {
+				case Bytecode.NIL :
+					code.op(ACONST_NULL, 1);
+					break;
+				case Bytecode.SELF :
+					code.op(ALOAD, 1).u1(0);
+					break;
+				case Bytecode.TRUE :
+				case Bytecode.FALSE :
+					code.op(GETSTATIC, 1).u2(pool.fieldRef("java/lang/Boolean",
+						opcode==Bytecode.TRUE ? "TRUE" : "FALSE", "Ljava/lang/Boolean;"));
+					break;
+				case Bytecode.PUSH_CHAR :
+					code.op(LDC_W, 1).u2(pool.integer(Bytecode.getShort(b, ip+1)));
+					code.op(INVOKESTATIC, 0).u2(pool.methodRef("java/lang/Character", "valueOf", "(C)Ljava/lang/Character;"));
+					break;
+				case Bytecode.PUSH_INT :
+					code.op(LDC_W, 1).u2(pool.integer(Bytecode.getInt(b, ip+1)));
+					code.op(INVOKESTATIC, 0).u2(pool.methodRef("java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;"));
+					break;
+				case Bytecode.PUSH_FLOAT :
+					code.op(LDC_W, 1).u2(pool.floatBits(Bytecode.getInt(b, ip+1)));
+					code.op(INVOKESTATIC, 0).u2(pool.methodRef("java/lang/Float", "valueOf", "(F)Ljava/lang/Float;"));
+					break;
+				case Bytecode.PUSH_LITERAL :
+					code.op(LDC_W, 1).u2(pool.string(literals[Bytecode.getShort(b, ip+1)]));
+					break;
+				case Bytecode.PUSH_LOCAL :
+					if ( Bytecode.getShort(b, ip+1)!=0 ) return null; // outer context
+					code.op(ALOAD, 1).u1(Bytecode.getShort(b, ip+3)+1);
+					break;
+				case Bytecode.STORE_LOCAL : // leaves the value on the stack
+					if ( Bytecode.getShort(b, ip+1)!=0 ) return null;
+					code.op(DUP, 1);
+					code.op(ASTORE, -1).u1(Bytecode.getShort(b, ip+3)+1);
+					break;
+				case Bytecode.POP :
+					code.op(POP, -1);
+					break;
+				case Bytecode.SEND :
+				case Bytecode.TAIL_SEND : // the JVM has no tail calls
+				case Bytecode.SEND_DIRECT : // the call site caches the lookup anyway
+					int nargs = Bytecode.getShort(b, ip+1);
+					String selector = literals[Bytecode.getShort(b, ip+3)];
+					code.op(INVOKEDYNAMIC, -nargs).u2(pool.send(selector, methodType(nargs))).u2(0);
+					break;
+				case Bytecode.RETURN :
+					code.op(ARETURN, -1);
+					returned = true; // the rest is dead, and would need a stack map frame
+					break;
+				case Bytecode.DBG :
+					break;
+				default :
+					return null;
+			}
+			ip += Bytecode.sizeOfInstruction(opcode);
+		}
+		if ( !returned || code.underflow ) return null; // the JVM would reject it
+		MethodBody body = new MethodBody();
+		body.code = code.bytes.toByteArray();
+		body.maxStack = code.maxStack;
+		body.maxLocals = nlocals+1;
+		return body;
+	}
+
+	protected static final int ACONST_NULL = 0x01;
+	protected static final int LDC_W = 0x13;
+	protected static final int ALOAD = 0x19;
+	protected static final int ASTORE = 0x3a;
+	protected static final int POP = 0x57;
+	protected static final int DUP = 0x59;
+	protected static final int ARETURN = 0xb0;
+	protected static final int GETSTATIC = 0xb2;
+	protected static final int INVOKESTATIC = 0xb8;
+	protected static final int INVOKEDYNAMIC = 0xba;
+
+	/** JVM code for one method, tracking the operand stack depth */
+	protected static class Code {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int depth = 0;
+		int maxStack = 0;
+		boolean underflow = false;
+
+		Code op(int opcode, int stackEffect) {
+			bytes.write(opcode);
+			depth += stackEffect;
+			maxStack = Math.max(maxStack, depth);
+			underflow |= depth<0;
+			return this;
+		}
+
+		Code u1(int v) { bytes.write(v); return this; }
+
+		Code u2(int v) { bytes.write(v>>8); bytes.write(v); return this; }
+	}
+
+	/** The constant pool and bootstrap method table of the class being written */
+	protected static class ConstantPool {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final Map<String, Integer> entries = new HashMap<>();
+		/** method handle and selector string indexes per bootstrap method */
+		final List<int[]> bootstrapMethods = new ArrayList<>();
+		int count = 1; // entry 0 is unused
+
+		int utf8(String s) {
+			return entry("U"+s, () -> { out.writeByte(1); out.writeUTF(s); });
+		}
+
+		int integer(int v) {
+			return entry("I"+v, () -> { out.writeByte(3); out.writeInt(v); });
+		}
+
+		int floatBits(int bits) {
+			return entry("F"+bits, () -> { out.writeByte(4); out.writeInt(bits); });
+		}
+
+		int classRef(String internalName) {
+			int name = utf8(internalName);
+			return entry("C"+internalName, () -> { out.writeByte(7); out.writeShort(name); });
+		}
+
+		int string(String s) {
+			int utf = utf8(s);
+			return entry("S"+s, () -> { out.writeByte(8); out.writeShort(utf); });
+		}
+
+		int nameAndType(String name, String descriptor) {
+			int n = utf8(name);
+			int d = utf8(descriptor);
+			return entry("N"+name+" "+descriptor, () -> { out.writeByte(12); out.writeShort(n); out.writeShort(d); });
+		}
+
+		int fieldRef(String owner, String name, String descriptor) {
+			return memberRef(9, owner, name, descriptor);
+		}
+
+		int methodRef(String owner, String name, String descriptor) {
+			return memberRef(10, owner, name, descriptor);
+		}
+
+		int memberRef(int tag, String owner, String name, String descriptor) {
+			int c = classRef(owner);
+			int nt = nameAndType(name, descriptor);
+			return entry(tag+owner+"."+name+descriptor, () -> { out.writeByte(tag); out.writeShort(c); out.writeShort(nt); });
+		}
+
+		/** An invokedynamic entry for a send of selector. The JVM name is
+		 *  fixed since selectors like <= aren't valid method names; the
+		 *  bootstrap method gets the selector as a static argument.
+		 */
+		int send(String selector, MethodType type) {
+			String bootstrapType = MethodType.methodType(java.lang.invoke.CallSite.class,
+				MethodHandles.Lookup.class, String.class, MethodType.class, String.class).toMethodDescriptorString();
+			int ref = methodRef("smalltalk/compiler/runtime/SendCallSite", "bootstrap", bootstrapType);
+			int handle = entry("H"+ref, () -> { out.writeByte(15); out.writeByte(6); out.writeShort(ref); }); // REF_invokeStatic
+			int sel = string(selector);
+			int bsm = bootstrapMethods.size();
+			for (int i = 0; i<bootstrapMethods.size(); i++) {
+				if ( bootstrapMethods.get(i)[1]==sel ) bsm = i;
+			}
+			if ( bsm==bootstrapMethods.size() ) bootstrapMethods.add(new int[] {handle, sel});
+			int nt = nameAndType("send", type.toMethodDescriptorString());
+			int b = bsm;
+			return entry("D"+b+" "+nt, () -> { out.writeByte(18); out.writeShort(b); out.writeShort(nt); });
+		}
+
+		interface Writer { void write() throws IOException; }
+
+		int entry(String key, Writer w) {
+			Integer index = entries.get(key);
+			if ( index!=null ) return index;
+			try {
+				w.write();
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			entries.put(key, count);
+			return count++;
+		}
+
+		void write(DataOutputStream classFile) throws IOException {
+			classFile.writeShort(count);
+			classFile.write(bytes.toByteArray());
+		}
+	}
+}
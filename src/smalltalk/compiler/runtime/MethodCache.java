@@ -0,0 +1,165 @@
+package smalltalk.compiler.runtime;
+
+import java.util.Arrays;
+
+/** The global method lookup cache, ala the Blue Book: a fixed-size,
+ *  open-addressed table mapping (class ID, selector ID) to a method.
+ *  Sends that miss in their {@link InlineCache} (cold or megamorphic
+ *  sites) look here before walking the superclass chain, which bounds
+ *  the cost of the worst-case send.
+ *
+ *  Keys live in parallel int arrays so probing never boxes. A lookup
+ *  examines at most {@link #MAX_PROBES} consecutive slots; when they are all
+ *  taken, an insertion overwrites the first one. Because a probe always
+ *  looks at all of its slots rather than stopping at an empty one,
+ *  entries can be removed without breaking other probe sequences.
+ *
+ *  Class and selector IDs are small non-negative ints assigned by the VM.
+ *  Whenever a method is added or redefined, the VM must call
+ *  {@link #invalidateSelector} (or {@link #flush}) since the change can
+ *  affect the lookup of that selector in every subclass.
+ */
+public class MethodCache<M> {
+	public static final int DEFAULT_SIZE = 1024;
+	public static final int MAX_PROBES = 4;
+
+	protected static final int EMPTY = -1;
+
+	/** Fallback lookup invoked upon a cache miss; e.g., a walk up the
+	 *  superclass chain. Returns null if no class understands the selector.
+	 */
+	public interface Resolver<M> {
+		M resolve(int classID, int selectorID);
+	}
+
+	protected final int[] classIDs;
+	protected final int[] selectorIDs;
+	protected final Object[] methods;
+	protected final int mask;
+
+	protected long lookups = 0;
+	protected long hits = 0;
+	protected long invalidations = 0;
+
+	public MethodCache() {
+		this(DEFAULT_SIZE);
+	}
+
+	/** Create a cache with size slots; size must be a power of two */
+	public MethodCache(int size) {
+		if ( size<MAX_PROBES || Integer.bitCount(size)!=1 ) {
+			throw new IllegalArgumentException("cache size must be a power of two >= "+MAX_PROBES+": "+size);
+		}
+		classIDs = new int[size];
+		selectorIDs = new int[size];
+		methods = new Object[size];
+		mask = size-1;
+		clearAll();
+	}
+
+	/** Return the cached method or null if (classID, selectorID) isn't cached */
+	@SuppressWarnings("unchecked")
+	public M get(int classID, int selectorID) {
+		lookups++;
+		int h = hash(classID, selectorID);
+		for (int i=0; i<MAX_PROBES; i++) {
+			int slot = (h+i) & mask;
+			if ( classIDs[slot]==classID && selectorIDs[slot]==selectorID ) {
+				hits++;
+				return (M)methods[slot];
+			}
+		}
+		return null;
+	}
+
+	/** Return the method for (classID, selectorID), asking resolver and
+	 *  caching the answer upon a miss.
+	 */
+	public M lookup(int classID, int selectorID, Resolver<? extends M> resolver) {
+		M m = get(classID, selectorID);
+		if ( m==null ) {
+			m = resolver.resolve(classID, selectorID);
+			if ( m!=null ) {
+				put(classID, selectorID, m);
+			}
+		}
+		return m;
+	}
+
+	public void put(int classID, int selectorID, M method) {
+		if ( classID<0 || selectorID<0 ) {
+			throw new IllegalArgumentException("bad method cache key: "+classID+", "+selectorID);
+		}
+		int h = hash(classID, selectorID);
+		int victim = h & mask;
+		for (int i=0; i<MAX_PROBES; i++) {
+			int slot = (h+i) & mask;
+			if ( classIDs[slot]==EMPTY ||
+				 (classIDs[slot]==classID && selectorIDs[slot]==selectorID) )
+			{
+				victim = slot;
+				break;
+			}
+		}
+		classIDs[victim] = classID;
+		selectorIDs[victim] = selectorID;
+		methods[victim] = method;
+	}
+
+	/** Drop all entries for selectorID, which was just (re)defined in some class */
+	public void invalidateSelector(int selectorID) {
+		invalidations++;
+		for (int slot=0; slot<classIDs.length; slot++) {
+			if ( selectorIDs[slot]==selectorID ) {
+				clear(slot);
+			}
+		}
+	}
+
+	/** Drop all entries */
+	public void flush() {
+		invalidations++;
+		clearAll();
+	}
+
+	public int size() { return classIDs.length; }
+
+	public long getLookups() { return lookups; }
+
+	public long getHits() { return hits; }
+
+	public long getInvalidations() { return invalidations; }
+
+	public double getHitRate() {
+		return lookups==0 ? 0.0 : (double)hits/lookups;
+	}
+
+	public void resetCounters() {
+		lookups = 0;
+		hits = 0;
+		invalidations = 0;
+	}
+
+	protected void clear(int slot) {
+		classIDs[slot] = EMPTY;
+		selectorIDs[slot] = EMPTY;
+		methods[slot] = null;
+	}
+
+	protected void clearAll() {
+		Arrays.fill(classIDs, EMPTY);
+		Arrays.fill(selectorIDs, EMPTY);
+		Arrays.fill(methods, null);
+	}
+
+	protected static int hash(int classID, int selectorID) {
+		int h = classID*31 ^ selectorID*0x9E3779B9;
+		return h ^ (h>>>16);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("lookups=%d hits=%d (%.1f%%) invalidations=%d",
+		                     lookups, hits, getHitRate()*100, invalidations);
+	}
+}
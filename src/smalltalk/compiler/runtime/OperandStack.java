@@ -0,0 +1,117 @@
+package smalltalk.compiler.runtime;
+
+import java.util.Arrays;
+import java.util.function.LongFunction;
+
+/** An operand stack for the VM's interpreter that holds small integers
+ *  unboxed. Each slot is a pair of entries in two parallel arrays: an
+ *  object reference and a long. A slot holding an integer has the
+ *  {@link #SMALL_INTEGER} tag as its reference and its value in the long
+ *  array, so push_int and the Integer primitives (Integer_ADD, etc.)
+ *  never allocate.
+ *
+ *  An integer is boxed only when the VM needs it as an object, such as
+ *  when storing it into a field or passing it to a non-primitive method;
+ *  the boxer passed to the constructor creates the VM's STInteger.
+ *
+ *  The stack has a fixed capacity, which should be the
+ *  {@link smalltalk.compiler.symbols.STCompiledBlock#maxStack} computed by
+ *  the compiler, and does no capacity checks on push.
+ */
+public class OperandStack {
+	/** Tag stored in the reference array for slots holding an unboxed integer */
+	public static final Object SMALL_INTEGER = new Object() {
+		@Override
+		public String toString() { return "<small-integer>"; }
+	};
+
+	protected final Object[] refs;
+	protected final long[] ints;
+	protected final LongFunction<Object> boxer;
+
+	/** Index of the top element; -1 when empty */
+	protected int sp = -1;
+
+	public OperandStack(int capacity, LongFunction<Object> boxer) {
+		refs = new Object[capacity];
+		ints = new long[capacity];
+		this.boxer = boxer;
+	}
+
+	public void push(Object o) {
+		refs[++sp] = o;
+	}
+
+	public void pushInt(long v) {
+		sp++;
+		refs[sp] = SMALL_INTEGER;
+		ints[sp] = v;
+	}
+
+	/** Is the element at depth i (0 is the top) an unboxed integer? */
+	public boolean isInt(int i) {
+		return refs[sp-i]==SMALL_INTEGER;
+	}
+
+	/** Are the top two elements unboxed integers, as required by the
+	 *  fast path of the binary Integer primitives?
+	 */
+	public boolean topTwoAreInts() {
+		return sp>=1 && refs[sp]==SMALL_INTEGER && refs[sp-1]==SMALL_INTEGER;
+	}
+
+	/** Pop an unboxed integer; the top element must be an integer */
+	public long popInt() {
+		long v = ints[sp];
+		refs[sp--] = null;
+		return v;
+	}
+
+	public long peekInt(int i) {
+		return ints[sp-i];
+	}
+
+	/** Pop the top element as an object, boxing it if it's an integer */
+	public Object pop() {
+		Object o = refs[sp];
+		if ( o==SMALL_INTEGER ) {
+			o = boxer.apply(ints[sp]);
+		}
+		refs[sp--] = null;
+		return o;
+	}
+
+	/** Return the element at depth i (0 is the top) as an object */
+	public Object peek(int i) {
+		Object o = refs[sp-i];
+		if ( o==SMALL_INTEGER ) {
+			o = boxer.apply(ints[sp-i]);
+		}
+		return o;
+	}
+
+	public Object top() { return peek(0); }
+
+	/** Discard the top n elements */
+	public void drop(int n) {
+		Arrays.fill(refs, sp-n+1, sp+1, null);
+		sp -= n;
+	}
+
+	public int size() { return sp+1; }
+
+	public int capacity() { return refs.length; }
+
+	public boolean isEmpty() { return sp<0; }
+
+	@Override
+	public String toString() {
+		StringBuilder buf = new StringBuilder("[");
+		for (int i=0; i<=sp; i++) {
+			if ( i>0 ) buf.append(", ");
+			buf.append(refs[i]==SMALL_INTEGER ? String.valueOf(ints[i]) : String.valueOf(refs[i]));
+		}
+		buf.append(']');
+		return buf.toString();
+	}
+}
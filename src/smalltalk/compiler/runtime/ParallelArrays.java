@@ -0,0 +1,128 @@
+package smalltalk.compiler.runtime;
+
+import smalltalk.compiler.symbols.STBlock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BiFunction;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/** Fork-join implementations of the Array_PARALLEL_* primitives behind
+ *  Array>>parallelDo:, parallelCollect:, parallelInject:into:, and
+ *  parallelSelect:. Each splits the first n elements of an array's backing
+ *  store into chunks of at most grain elements and evaluates the block on
+ *  the chunks in a ForkJoinPool.
+ *
+ *  Each method takes the kind of the block and evaluates it on several
+ *  threads only if {@link #shouldParallelize} says so: for
+ *  {@link STBlock.Kind#CLEAN} blocks, which reference no variables of
+ *  enclosing contexts, on arrays longer than grain. Other blocks iterate
+ *  sequentially on the calling thread. A clean block can still reach
+ *  shared objects, such as a global like Transcript, so being clean is
+ *  not a guarantee that the block is thread-safe.
+ *
+ *  parallelInject:into: folds each chunk starting from its first element,
+ *  combines the chunk results with the block, then folds init into that,
+ *  so the block must be associative and take elements as its accumulator.
+ */
+public class ParallelArrays {
+	public static final int DEFAULT_GRAIN = 1024;
+
+	protected final ForkJoinPool pool;
+	protected final int grain;
+
+	public ParallelArrays() {
+		this(ForkJoinPool.commonPool(), DEFAULT_GRAIN);
+	}
+
+	public ParallelArrays(ForkJoinPool pool, int grain) {
+		this.pool = pool;
+		this.grain = Math.max(1, grain);
+	}
+
+	public boolean shouldParallelize(STBlock.Kind blockKind, int n) {
+		return blockKind==STBlock.Kind.CLEAN && n>grain;
+	}
+
+	public void forEach(Object[] elements, int n, STBlock.Kind blockKind, Consumer<Object> blk) {
+		run(blockKind, n, (lo, hi) -> {
+			for (int i = lo; i<hi; i++) blk.accept(elements[i]);
+			return null;
+		}, (a, b) -> null);
+	}
+
+	public Object[] collect(Object[] elements, int n, STBlock.Kind blockKind,
+	                        Function<Object,Object> blk)
+	{
+		Object[] result = new Object[n];
+		run(blockKind, n, (lo, hi) -> {
+			for (int i = lo; i<hi; i++) result[i] = blk.apply(elements[i]);
+			return null;
+		}, (a, b) -> null);
+		return result;
+	}
+
+	public Object inject(Object[] elements, int n, Object init, STBlock.Kind blockKind,
+	                     BinaryOperator<Object> blk)
+	{
+		if ( n==0 ) return init;
+		Object total = run(blockKind, n, (lo, hi) -> {
+			Object acc = elements[lo];
+			for (int i = lo+1; i<hi; i++) acc = blk.apply(acc, elements[i]);
+			return acc;
+		}, blk);
+		return blk.apply(init, total);
+	}
+
+	/** Return the elements satisfying blk, in their original order */
+	public Object[] select(Object[] elements, int n, STBlock.Kind blockKind,
+	                       Predicate<Object> blk)
+	{
+		List<Object> selected = run(blockKind, n, (lo, hi) -> {
+			List<Object> chunk = new ArrayList<>();
+			for (int i = lo; i<hi; i++) {
+				if ( blk.test(elements[i]) ) chunk.add(elements[i]);
+			}
+			return chunk;
+		}, (a, b) -> { a.addAll(b); return a; });
+		return selected.toArray();
+	}
+
+	protected <R> R run(STBlock.Kind blockKind, int n,
+	                    BiFunction<Integer,Integer,R> leaf, BinaryOperator<R> combine)
+	{
+		if ( !shouldParallelize(blockKind, n) ) return leaf.apply(0, n);
+		return pool.invoke(new Chunk<>(0, n, leaf, combine));
+	}
+
+	/** Elements [lo,hi) of the array; splits in half until at most grain long */
+	protected class Chunk<R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+
+		protected final int lo, hi;
+		protected final BiFunction<Integer,Integer,R> leaf;
+		protected final BinaryOperator<R> combine;
+
+		protected Chunk(int lo, int hi, BiFunction<Integer,Integer,R> leaf, BinaryOperator<R> combine) {
+			this.lo = lo;
+			this.hi = hi;
+			this.leaf = leaf;
+			this.combine = combine;
+		}
+
+		@Override
+		protected R compute() {
+			if ( hi-lo<=grain ) return leaf.apply(lo, hi);
+			int mid = (lo+hi) >>> 1;
+			Chunk<R> left = new Chunk<>(lo, mid, leaf, combine);
+			left.fork();
+			R right = new Chunk<>(mid, hi, leaf, combine).compute();
+			return combine.apply(left.join(), right);
+		}
+	}
+}
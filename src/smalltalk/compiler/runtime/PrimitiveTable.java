@@ -0,0 +1,44 @@
+package smalltalk.compiler.runtime;
+
+import smalltalk.compiler.Primitive;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** The VM's implementations of primitives, indexed by {@link Primitive#id}.
+ *  When loading a method, the VM reads its primitiveID from the object
+ *  file and keeps the implementation from {@link #get(int)}; invoking it is
+ *  then an array access rather than a lookup by name.
+ *
+ *  F is the VM's functional interface for primitives, such as
+ *  {@code (ctx, nargs) -> result}.
+ */
+public class PrimitiveTable<F> {
+	protected final Object[] impls = new Object[Primitive.count()];
+
+	public PrimitiveTable<F> register(Primitive p, F impl) {
+		impls[p.id] = impl;
+		return this;
+	}
+
+	/** Return the implementation of the primitive with ID id, or null if
+	 *  the VM didn't register one.
+	 */
+	@SuppressWarnings("unchecked")
+	public F get(int id) {
+		return id>=0 && id<impls.length ? (F)impls[id] : null;
+	}
+
+	public F get(Primitive p) { return get(p.id); }
+
+	/** Return the primitives known to the compiler with no implementation;
+	 *  the VM should check this is empty at startup.
+	 */
+	public List<Primitive> getMissing() {
+		List<Primitive> missing = new ArrayList<>();
+		for (Primitive p : Primitive.values()) {
+			if ( impls[p.id]==null ) missing.add(p);
+		}
+		return missing;
+	}
+}
@@ -0,0 +1,114 @@
+package smalltalk.compiler.runtime;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Runs Smalltalk processes, created by {@code [...] fork}, on JVM threads.
+ *  On a JVM with virtual threads (Java 21+), each process gets a virtual
+ *  thread, so a process blocked in Semaphore_WAIT, SharedQueue_NEXT,
+ *  Delay_Class_WAIT, or stream I/O parks only itself and thousands of
+ *  processes share a few carrier threads. On older JVMs each process gets
+ *  a daemon platform thread. We look up virtual threads reflectively
+ *  because the compiler targets Java 8.
+ *
+ *  The VM's primitives should map Semaphore to
+ *  {@link java.util.concurrent.Semaphore}, SharedQueue to
+ *  {@link java.util.concurrent.LinkedBlockingQueue}, and Delay to
+ *  {@link Thread#sleep(long)}, all of which park virtual threads rather
+ *  than pinning their carrier. Avoid synchronized blocks around blocking
+ *  calls in primitives, which pin the carrier before Java 24.
+ *
+ *  BlockDescriptor_FORK should pass a Runnable that evaluates the block
+ *  to {@link #fork(Runnable)}; the resulting Thread is the Smalltalk
+ *  Process object. A forked block that does ^ from a method whose
+ *  activation lives in another process has nowhere to return to; the VM
+ *  should treat that as an error in the forked process.
+ */
+public class ProcessScheduler {
+	protected final ThreadFactory factory;
+	protected final boolean virtual;
+	protected final AtomicInteger live = new AtomicInteger();
+	protected final AtomicInteger forked = new AtomicInteger();
+
+	/** Use virtual threads if the JVM has them */
+	public ProcessScheduler() {
+		ThreadFactory f = virtualThreadFactory();
+		this.virtual = f!=null;
+		this.factory = f!=null ? f : platformThreadFactory();
+	}
+
+	public ProcessScheduler(ThreadFactory factory) {
+		this.factory = factory;
+		this.virtual = false;
+	}
+
+	/** Start a process running body; return its thread */
+	public Thread fork(Runnable body) {
+		Thread t = factory.newThread(() -> {
+			try {
+				body.run();
+			}
+			finally {
+				live.decrementAndGet();
+			}
+		});
+		live.incrementAndGet();
+		forked.incrementAndGet();
+		t.start();
+		return t;
+	}
+
+	/** Process_JOIN: wait for process to finish */
+	public static void join(Thread process) throws InterruptedException {
+		process.join();
+	}
+
+	/** Process_TERMINATE: interrupt process so that its next blocking
+	 *  primitive throws InterruptedException, which the VM should let
+	 *  unwind the process.
+	 */
+	public static void terminate(Thread process) {
+		process.interrupt();
+	}
+
+	/** Process_ISTERMINATED */
+	public static boolean isTerminated(Thread process) {
+		return process.getState()==Thread.State.TERMINATED;
+	}
+
+	/** True if processes run on virtual threads */
+	public boolean isVirtual() { return virtual; }
+
+	/** The number of processes forked and not yet finished */
+	public int getNumberLive() { return live.get(); }
+
+	public int getNumberForked() { return forked.get(); }
+
+	/** Return Thread.ofVirtual().name("st-process-", 0).factory() or null if
+	 *  this JVM has no virtual threads.
+	 */
+	public static ThreadFactory virtualThreadFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class)
+				.invoke(builder, "st-process-", 0L);
+			Method factory = builderClass.getMethod("factory");
+			return (ThreadFactory)factory.invoke(builder);
+		}
+		catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+			// no virtual threads or preview not enabled
+			return null;
+		}
+	}
+
+	public static ThreadFactory platformThreadFactory() {
+		AtomicInteger n = new AtomicInteger();
+		return r -> {
+			Thread t = new Thread(r, "st-process-"+n.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		};
+	}
+}
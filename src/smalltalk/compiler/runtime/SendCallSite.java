@@ -0,0 +1,191 @@
+package smalltalk.compiler.runtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+
+/** An invokedynamic call site for a Smalltalk SEND, for VMs that execute
+ *  methods as MethodHandles or JVM bytecode (see {@link TieredCompilation}).
+ *
+ *  The site starts out unlinked. Upon each miss, it asks its {@link Linker}
+ *  for a direct handle to the method the receiver's Smalltalk class
+ *  answers for the selector and prepends a guard on that class to the
+ *  site's chain of guards. Primitives such as Integer_ADD should be
+ *  returned by the linker as direct handles too, so the JVM can inline
+ *  them. Once the chain holds {@link #MAX_CHAIN} classes, the site is
+ *  megamorphic and does a full lookup on each call.
+ *
+ *  The whole chain sits behind the linker's {@link SwitchPoint}; defining
+ *  or redefining any method should call {@link Linker#invalidate()}, which
+ *  makes every site drop its chain and relink on the next call.
+ *
+ *  Every argument and the result are of type Object; the call site type
+ *  is (Object receiver, Object arg1, ...)Object.
+ */
+public class SendCallSite extends MutableCallSite {
+	public static final int MAX_CHAIN = 4;
+
+	/** How the VM maps receivers to Smalltalk classes and selectors to code */
+	public static abstract class Linker {
+		protected volatile SwitchPoint methodsUnchanged = new SwitchPoint();
+
+		/** Return the Smalltalk class of receiver; compared by identity */
+		public abstract Object classOf(Object receiver);
+
+		/** Return a handle of type type that executes the method found for
+		 *  selector starting at class cls, or null if there is none.
+		 */
+		public abstract MethodHandle lookup(Object cls, String selector, MethodType type);
+
+		/** Called when no method answers selector; args[0] is the receiver */
+		public abstract Object doesNotUnderstand(String selector, Object[] args);
+
+		/** Unlink all call sites using this linker; call after any change to methods */
+		public synchronized void invalidate() {
+			SwitchPoint old = methodsUnchanged;
+			methodsUnchanged = new SwitchPoint();
+			SwitchPoint.invalidateAll(new SwitchPoint[] {old});
+		}
+	}
+
+	protected static final MethodHandle CHECK_CLASS;
+	protected static final MethodHandle FALLBACK;
+	protected static final MethodHandle RELINK;
+	protected static final MethodHandle MEGAMORPHIC;
+	static {
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		try {
+			CHECK_CLASS = lookup.findStatic(SendCallSite.class, "checkClass",
+				MethodType.methodType(boolean.class, Linker.class, Object.class, Object.class));
+			MethodType invoke = MethodType.methodType(Object.class, Object[].class);
+			FALLBACK = lookup.findVirtual(SendCallSite.class, "fallback", invoke);
+			RELINK = lookup.findVirtual(SendCallSite.class, "relink", invoke);
+			MEGAMORPHIC = lookup.findVirtual(SendCallSite.class, "megamorphic", invoke);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	public final String selector;
+	protected final Linker siteLinker;
+
+	/** Guards for the classes seen so far, ending in the fallback */
+	protected MethodHandle chain;
+	/** The linker's SwitchPoint when chain was started; guards chain */
+	protected SwitchPoint chainSwitchPoint;
+	protected int depth = 0;
+	protected boolean megamorphic = false;
+
+	public SendCallSite(Linker linker, String selector, MethodType type) {
+		super(type);
+		this.siteLinker = linker;
+		this.selector = selector;
+		reset(linker.methodsUnchanged);
+	}
+
+	/** Bootstrap method for invokedynamic instructions whose name is the
+	 *  selector, in a class defined by a {@link JITClassLoader}.
+	 */
+	public static CallSite bootstrap(MethodHandles.Lookup caller, String selector, MethodType type) {
+		return new SendCallSite(linkerFor(caller), selector, type);
+	}
+
+	/** Bootstrap method for invokedynamic instructions that pass the
+	 *  selector as a static argument, as {@link JVMTranslator} does since
+	 *  selectors like &lt;= aren't valid JVM method names.
+	 */
+	public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type, String selector) {
+		return new SendCallSite(linkerFor(caller), selector, type);
+	}
+
+	/** Return the linker of the {@link JITClassLoader} that defined the
+	 *  class containing the invokedynamic instruction.
+	 */
+	protected static Linker linkerFor(MethodHandles.Lookup caller) {
+		ClassLoader loader = caller.lookupClass().getClassLoader();
+		if ( !(loader instanceof JITClassLoader) || ((JITClassLoader) loader).linker==null ) {
+			throw new IllegalStateException("no linker for sends in "+caller.lookupClass().getName());
+		}
+		return ((JITClassLoader) loader).linker;
+	}
+
+	public int getChainLength() { return depth; }
+
+	public boolean isMegamorphic() { return megamorphic; }
+
+	protected Object fallback(Object[] args) throws Throwable {
+		// Read before the lookup so a method redefined during it invalidates
+		// the handle we link.
+		SwitchPoint methodsUnchanged = siteLinker.methodsUnchanged;
+		Object cls = siteLinker.classOf(args[0]);
+		MethodHandle target = siteLinker.lookup(cls, selector, type());
+		if ( target==null ) {
+			return siteLinker.doesNotUnderstand(selector, args);
+		}
+		target = target.asType(type());
+		link(methodsUnchanged, cls, target);
+		return target.invokeWithArguments(args);
+	}
+
+	/** Add a guard for cls to the chain if methodsUnchanged, the linker's
+	 *  SwitchPoint when target was looked up, is still valid.
+	 */
+	protected synchronized void link(SwitchPoint methodsUnchanged, Object cls, MethodHandle target) {
+		if ( megamorphic ) return;
+		if ( methodsUnchanged.hasBeenInvalidated() ) return; // target may be stale
+		if ( methodsUnchanged!=chainSwitchPoint ) { // chain predates a redefinition
+			reset(methodsUnchanged);
+		}
+		if ( depth>=MAX_CHAIN ) {
+			megamorphic = true;
+			setTarget(adapt(MEGAMORPHIC));
+			return;
+		}
+		MethodHandle test = MethodHandles.insertArguments(CHECK_CLASS, 0, siteLinker, cls);
+		test = MethodHandles.dropArguments(test, 1, type().dropParameterTypes(0, 1).parameterList());
+		chain = MethodHandles.guardWithTest(test, target, chain);
+		depth++;
+		setTarget(methodsUnchanged.guardWithTest(chain, adapt(RELINK)));
+	}
+
+	protected Object relink(Object[] args) throws Throwable {
+		SwitchPoint methodsUnchanged = siteLinker.methodsUnchanged;
+		synchronized (this) {
+			if ( chainSwitchPoint.hasBeenInvalidated() ) reset(methodsUnchanged);
+		}
+		return fallback(args);
+	}
+
+	protected Object megamorphic(Object[] args) throws Throwable {
+		Object cls = siteLinker.classOf(args[0]);
+		MethodHandle target = siteLinker.lookup(cls, selector, type());
+		if ( target==null ) {
+			return siteLinker.doesNotUnderstand(selector, args);
+		}
+		return target.asType(type()).invokeWithArguments(args);
+	}
+
+	/** Drop the chain and guard the empty one with methodsUnchanged */
+	protected void reset(SwitchPoint methodsUnchanged) {
+		chain = adapt(FALLBACK);
+		chainSwitchPoint = methodsUnchanged;
+		depth = 0;
+		megamorphic = false;
+		setTarget(methodsUnchanged.guardWithTest(chain, adapt(RELINK)));
+	}
+
+	/** Bind one of our Object[] handlers to this site and give it the site's type */
+	protected MethodHandle adapt(MethodHandle handler) {
+		return handler.bindTo(this)
+			.asCollector(Object[].class, type().parameterCount())
+			.asType(type());
+	}
+
+	protected static boolean checkClass(Linker linker, Object expected, Object receiver) {
+		return linker.classOf(receiver)==expected;
+	}
+}
@@ -0,0 +1,94 @@
+package smalltalk.compiler.runtime;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Records how often each compiled block runs and which receiver classes
+ *  each of its sends sees, then writes the profile that STC's -profile
+ *  option reads with {@link smalltalk.compiler.SendProfile}. The VM should
+ *  keep the {@link Counts} for a compiled block with the block so that
+ *  recording a send costs no lookup by name. Safe to use from several
+ *  Smalltalk processes at once.
+ */
+public class SendProfiler {
+	/** The counts for one compiled block */
+	public static class Counts {
+		protected final LongAdder invocations = new LongAdder();
+		/** pc -> receiver class name -> count */
+		protected final Map<Integer, Map<String, LongAdder>> sites = new ConcurrentHashMap<>();
+
+		public void invoked() { invocations.increment(); }
+
+		/** Record that the send at pc found a receiver of class className */
+		public void sent(int pc, String className) {
+			sites.computeIfAbsent(pc, k -> new ConcurrentHashMap<>())
+				.computeIfAbsent(className, k -> new LongAdder())
+				.increment();
+		}
+	}
+
+	/** class name -> qualifiedName -> counts; blocks of same-named methods
+	 *  in different classes have the same qualifiedName.
+	 */
+	protected final Map<String, Map<String, Counts>> classes = new ConcurrentHashMap<>();
+
+	/** Return the counts for the block with the qualifiedName the compiler
+	 *  wrote to the object file of className.
+	 */
+	public Counts countsFor(String className, String qualifiedName) {
+		return classes.computeIfAbsent(className, k -> new ConcurrentHashMap<>())
+			.computeIfAbsent(qualifiedName, k -> new Counts());
+	}
+
+	public JsonObject toJson() {
+		JsonArrayBuilder methodArray = Json.createArrayBuilder();
+		for (Map.Entry<String, Map<String, Counts>> c : new TreeMap<>(classes).entrySet()) {
+			addMethods(methodArray, c.getKey(), c.getValue());
+		}
+		return Json.createObjectBuilder().add("methods", methodArray).build();
+	}
+
+	protected void addMethods(JsonArrayBuilder methodArray, String className, Map<String, Counts> methods) {
+		for (Map.Entry<String, Counts> m : new TreeMap<>(methods).entrySet()) {
+			JsonArrayBuilder siteArray = Json.createArrayBuilder();
+			for (Map.Entry<Integer, Map<String, LongAdder>> s : new TreeMap<>(m.getValue().sites).entrySet()) {
+				JsonObjectBuilder receivers = Json.createObjectBuilder();
+				long count = 0;
+				for (Map.Entry<String, LongAdder> r : new TreeMap<>(s.getValue()).entrySet()) {
+					long n = r.getValue().sum();
+					receivers.add(r.getKey(), n);
+					count += n;
+				}
+				siteArray.add(Json.createObjectBuilder()
+					.add("pc", s.getKey())
+					.add("count", count)
+					.add("receivers", receivers));
+			}
+			methodArray.add(Json.createObjectBuilder()
+				.add("class", className)
+				.add("name", m.getKey())
+				.add("invocations", m.getValue().invocations.sum())
+				.add("sites", siteArray));
+		}
+	}
+
+	public void write(Path path) throws IOException {
+		try (Writer w = Files.newBufferedWriter(path, StandardCharsets.UTF_8);
+		     JsonWriter json = Json.createWriter(w))
+		{
+			json.writeObject(toJson());
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package smalltalk.compiler.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Invocation counting and tier-up policy for a VM that can translate hot
+ *  Smalltalk methods to JVM bytecode. The VM interprets a method's
+ *  {@link smalltalk.compiler.symbols.STCompiledBlock#bytecode} until
+ *  {@link Counter#invoked()} returns a handle, then calls the handle.
+ *
+ *  Translation is delegated to a {@link Translator}, such as
+ *  {@link JVMTranslator}, which generates a class for the method and
+ *  defines it through the current {@link JITClassLoader}; a method it
+ *  can't translate is never offered again. M is the VM's compiled method
+ *  type. Like HotSpot's, the counters are not synchronized and may
+ *  undercount when several threads run a method, but a method is
+ *  translated at most once per generation; see {@link #discardTranslations}.
+ */
+public class TieredCompilation<M> {
+	public static final int DEFAULT_THRESHOLD = 1000;
+
+	public interface Translator<M> {
+		/** Return a handle that executes m, or null if m can't be translated */
+		MethodHandle translate(M m, JITClassLoader loader);
+	}
+
+	/** Per-method invocation state; the VM should keep a reference to it
+	 *  with its compiled method to avoid a lookup per call.
+	 */
+	public class Counter {
+		public final M method;
+		protected int invocations = 0;
+		protected volatile MethodHandle compiled;
+		protected boolean gaveUp = false;
+
+		protected Counter(M method) { this.method = method; }
+
+		/** Count an invocation of method. Return the translated code if it's
+		 *  available (translating now if method just got hot), otherwise null
+		 *  meaning interpret.
+		 */
+		public MethodHandle invoked() {
+			MethodHandle h = compiled;
+			if ( h!=null || gaveUp ) return h;
+			if ( ++invocations>=threshold ) {
+				synchronized (this) {
+					if ( compiled==null && !gaveUp ) {
+						compiled = translator.translate(method, loader);
+						if ( compiled!=null ) {
+							translated.incrementAndGet();
+						}
+						else {
+							gaveUp = true;
+							failed.incrementAndGet();
+						}
+					}
+				}
+			}
+			return compiled;
+		}
+
+		public int getInvocations() { return invocations; }
+
+		public boolean isCompiled() { return compiled!=null; }
+
+		protected synchronized void discard() {
+			compiled = null;
+			gaveUp = false;
+			invocations = 0;
+		}
+	}
+
+	protected final int threshold;
+	protected final Translator<M> translator;
+	/** Given to each generation's loader for the sends of translated code */
+	protected final SendCallSite.Linker linker;
+	/** Defines the classes of the current generation of translated code */
+	protected volatile JITClassLoader loader;
+	protected final Map<M, Counter> counters = new IdentityHashMap<>();
+
+	/** Shared by all counters, which translate under their own locks */
+	protected final AtomicInteger translated = new AtomicInteger();
+	protected final AtomicInteger failed = new AtomicInteger();
+
+	public TieredCompilation(Translator<M> translator) {
+		this(translator, DEFAULT_THRESHOLD);
+	}
+
+	public TieredCompilation(Translator<M> translator, int threshold) {
+		this(translator, null, threshold);
+	}
+
+	/** Translated code will link its sends with linker, which may be null
+	 *  if the translator generates none.
+	 */
+	public TieredCompilation(Translator<M> translator, SendCallSite.Linker linker, int threshold) {
+		this.translator = translator;
+		this.linker = linker;
+		this.threshold = threshold;
+		this.loader = newLoader();
+	}
+
+	public synchronized Counter counterFor(M method) {
+		return counters.computeIfAbsent(method, Counter::new);
+	}
+
+	/** Go back to interpreting every method and start a new generation of
+	 *  translated code in a new class loader, such as after methods were
+	 *  redefined. Once the VM drops the handles it got, the JVM can unload
+	 *  the old generation's classes.
+	 */
+	public synchronized void discardTranslations() {
+		loader = newLoader();
+		for (Counter c : counters.values()) {
+			c.discard();
+		}
+	}
+
+	protected JITClassLoader newLoader() {
+		return new JITClassLoader(TieredCompilation.class.getClassLoader(), linker);
+	}
+
+	public int getThreshold() { return threshold; }
+
+	public int getNumberTranslated() { return translated.get(); }
+
+	public int getNumberFailed() { return failed.get(); }
+}
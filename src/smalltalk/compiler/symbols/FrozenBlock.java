@@ -0,0 +1,197 @@
+package smalltalk.compiler.symbols;
+
+import org.antlr.symtab.Symbol;
+import org.antlr.symtab.VariableSymbol;
+import smalltalk.compiler.runtime.InlineCache;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.List;
+import java.util.Map;
+
+/** The immutable form of an {@link STCompiledBlock} kept by a
+ *  {@link FrozenSymbolTable}: the same compiled code and meta information
+ *  but no reference to its class, symbols or parse tree. The arrays are
+ *  copies, so later passes over the compiled block don't change the frozen
+ *  form; treat them as read-only. Names are interned so that programs
+ *  loaded side by side share them.
+ */
+public class FrozenBlock {
+	public final String name;
+	public final String qualifiedName;
+	public final byte[] bytecode;
+	/** The nested blocks of a method or block, indexed by the BLOCK instruction */
+	public final FrozenBlock[] blocks;
+	public final int[] sendSites;
+	public final long invocations;
+	/** Receiver classes per send site if compiled with a profile, else null */
+	public final String[][] siteReceivers;
+	public final byte[] lineTable;
+	public final int maxStack;
+	public final int nargs;
+	public final int nlocals;
+	public final String primitiveName;
+	public final int primitiveID;
+	public final boolean isClassMethod;
+	public final STBlock.Kind blockKind;
+	public final boolean contextEscapes;
+	/** The name of each argument and local by index, or null if unknown */
+	public final String[] localNames;
+
+	/** Freeze blk and its nested blocks, taking the names of their locals
+	 *  from the symbols that produced them, if known.
+	 */
+	public FrozenBlock(STCompiledBlock blk, Map<STCompiledBlock, STBlock> symbols) {
+		name = blk.name.intern();
+		qualifiedName = blk.qualifiedName;
+		bytecode = blk.bytecode!=null ? blk.bytecode.clone() : null;
+		sendSites = blk.sendSites!=null ? blk.sendSites.clone() : null;
+		invocations = blk.invocations;
+		if ( blk.siteReceivers!=null ) {
+			siteReceivers = new String[blk.siteReceivers.size()][];
+			for (int i = 0; i<siteReceivers.length; i++) {
+				siteReceivers[i] = intern(blk.siteReceivers.get(i));
+			}
+		}
+		else {
+			siteReceivers = null;
+		}
+		lineTable = blk.lineTable!=null ? blk.lineTable.clone() : null;
+		maxStack = blk.maxStack;
+		nargs = blk.nargs;
+		nlocals = blk.nlocals;
+		primitiveName = blk.primitiveName!=null ? blk.primitiveName.intern() : null;
+		primitiveID = blk.primitiveID;
+		isClassMethod = blk.isClassMethod;
+		blockKind = blk.blockKind;
+		contextEscapes = blk.contextEscapes;
+		if ( blk.blocks!=null ) {
+			blocks = new FrozenBlock[blk.blocks.length];
+			for (int i = 0; i<blocks.length; i++) {
+				blocks[i] = blk.blocks[i]!=null ? new FrozenBlock(blk.blocks[i], symbols) : null;
+			}
+		}
+		else {
+			blocks = null;
+		}
+		STBlock sym = symbols!=null ? symbols.get(blk) : null;
+		localNames = sym!=null ? localNames(sym, nargs+nlocals) : null;
+	}
+
+	protected static String[] localNames(STBlock blk, int n) {
+		String[] names = new String[n];
+		for (Symbol s : blk.getSymbols()) {
+			int i = s.getInsertionOrderNumber();
+			if ( s instanceof VariableSymbol && i>=0 && i<n ) {
+				names[i] = s.getName().intern();
+			}
+		}
+		return names;
+	}
+
+	protected static String[] intern(List<String> strings) {
+		String[] a = new String[strings.size()];
+		for (int i = 0; i<a.length; i++) {
+			a[i] = strings.get(i).intern();
+		}
+		return a;
+	}
+
+	/** Return the index of the argument or local called name, or -1 */
+	public int getLocalIndex(String name) {
+		if ( localNames==null ) return -1;
+		for (int i = 0; i<localNames.length; i++) {
+			if ( name.equals(localNames[i]) ) return i;
+		}
+		return -1;
+	}
+
+	/** See {@link FrozenSymbolTable#estimateSize}; includes the nested blocks */
+	public long estimateSize() {
+		long n = FrozenSymbolTable.objectSize(22) + FrozenSymbolTable.stringSize(qualifiedName);
+		if ( bytecode!=null ) n += FrozenSymbolTable.arraySize(bytecode.length, 1);
+		if ( sendSites!=null ) n += FrozenSymbolTable.arraySize(sendSites.length, 4);
+		if ( lineTable!=null ) n += FrozenSymbolTable.arraySize(lineTable.length, 1);
+		if ( localNames!=null ) n += FrozenSymbolTable.arraySize(localNames.length, 4);
+		if ( siteReceivers!=null ) {
+			n += FrozenSymbolTable.arraySize(siteReceivers.length, 4);
+			for (String[] receivers : siteReceivers) {
+				n += FrozenSymbolTable.arraySize(receivers.length, 4);
+			}
+		}
+		if ( blocks!=null ) {
+			n += FrozenSymbolTable.arraySize(blocks.length, 4);
+			for (FrozenBlock blk : blocks) {
+				if ( blk!=null ) n += blk.estimateSize();
+			}
+		}
+		return n;
+	}
+
+	/** Return the JSON of {@link STCompiledBlock#serialize()} */
+	public JsonObject serialize() {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		builder.add("name", name);
+		builder.add("isClassMethod", isClassMethod);
+		builder.add("qualifiedName", qualifiedName);
+		if ( primitiveName!=null ) {
+			builder.add("primitiveName", primitiveName);
+			builder.add("primitiveID", primitiveID);
+		}
+		if ( blockKind!=null ) {
+			builder.add("blockKind", blockKind.name().toLowerCase());
+		}
+		builder.add("contextEscapes", contextEscapes);
+		builder.add("nargs", nargs);
+		builder.add("nlocals", nlocals);
+		builder.add("maxStack", maxStack);
+		JsonArrayBuilder codeArray = Json.createArrayBuilder();
+		if ( bytecode!=null ) {
+			for (byte b : bytecode) {
+				codeArray.add(b);
+			}
+		}
+		builder.add("bytecode", codeArray);
+		if ( lineTable!=null ) {
+			JsonArrayBuilder lineArray = Json.createArrayBuilder();
+			for (byte b : lineTable) {
+				lineArray.add(b);
+			}
+			builder.add("lineTable", lineArray);
+		}
+		JsonArrayBuilder sendSiteArray = Json.createArrayBuilder();
+		if ( sendSites!=null ) {
+			for (int ip : sendSites) {
+				sendSiteArray.add(ip);
+			}
+		}
+		builder.add("sendSites", sendSiteArray);
+		if ( siteReceivers!=null ) {
+			builder.add("invocations", invocations);
+			JsonArrayBuilder cacheArray = Json.createArrayBuilder();
+			for (String[] receivers : siteReceivers) {
+				InlineCache.State shape = InlineCache.shapeFor(receivers.length);
+				JsonArrayBuilder classArray = Json.createArrayBuilder();
+				if ( shape!=InlineCache.State.MEGAMORPHIC ) {
+					for (String cls : receivers) {
+						classArray.add(cls);
+					}
+				}
+				cacheArray.add(Json.createObjectBuilder()
+					.add("shape", shape.name().toLowerCase())
+					.add("receivers", classArray));
+			}
+			builder.add("inlineCaches", cacheArray);
+		}
+		JsonArrayBuilder blockArray = Json.createArrayBuilder();
+		if ( blocks!=null ) {
+			for (FrozenBlock block : blocks) {
+				blockArray.add(block.serialize());
+			}
+		}
+		builder.add("blocks", blockArray);
+		return builder.build();
+	}
+}
@@ -0,0 +1,147 @@
+package smalltalk.compiler.symbols;
+
+import org.antlr.symtab.FieldSymbol;
+import org.antlr.symtab.MethodSymbol;
+import org.antlr.symtab.Scope;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The immutable form of an {@link STClass} kept by a
+ *  {@link FrozenSymbolTable}. Fields, literals and methods are flat arrays,
+ *  field indexes are precomputed and the superclass is an index into the
+ *  table, so nothing refers back to the symtab library's scopes or to the
+ *  parse tree.
+ */
+public class FrozenClass {
+	public final String name;
+	/** Null only for Object */
+	public final String superClassName;
+	public final String fileName;
+	/** Index of the superclass in the table, or -1 if not in the table */
+	public final int superClass;
+	/** The index of fields[0] in an instance; the number of inherited fields */
+	public final int firstField;
+	/** The fields defined by this class */
+	public final String[] fields;
+	/** {@link STClass#stringTable} */
+	public final String[] literals;
+	/** The methods defined by this class, in order of definition */
+	public final FrozenBlock[] methods;
+	/** Indexes into methods, sorted by selector */
+	protected final int[] methodsBySelector;
+
+	public FrozenClass(STClass cls, int superClass) {
+		name = cls.getName().intern();
+		superClassName = cls.getSuperClassName()!=null ? cls.getSuperClassName().intern() : null;
+		fileName = cls.fileName;
+		this.superClass = superClass;
+		List<? extends FieldSymbol> definedFields = cls.getDefinedFields();
+		firstField = cls.getNumberOfFields() - definedFields.size();
+		fields = new String[definedFields.size()];
+		for (int i = 0; i<fields.length; i++) {
+			fields[i] = definedFields.get(i).getName().intern();
+		}
+		literals = cls.stringTable.toArray();
+		for (int i = 0; i<literals.length; i++) {
+			literals[i] = literals[i].intern();
+		}
+
+		List<FrozenBlock> frozen = new ArrayList<>();
+		for (MethodSymbol m : cls.getDefinedMethods()) {
+			STMethod method = (STMethod) m;
+			if ( method.compiledBlock==null ) continue;
+			Map<STCompiledBlock, STBlock> symbols = new IdentityHashMap<>();
+			symbols.put(method.compiledBlock, method);
+			STCompiledBlock[] blocks = method.compiledBlock.blocks;
+			List<Scope> nested = method.getAllNestedScopedSymbols(); // the code generator's order
+			for (int i = 0; blocks!=null && i<blocks.length && i<nested.size(); i++) {
+				symbols.put(blocks[i], (STBlock) nested.get(i));
+			}
+			frozen.add(new FrozenBlock(method.compiledBlock, symbols));
+		}
+		methods = frozen.toArray(new FrozenBlock[0]);
+		Integer[] order = new Integer[methods.length];
+		for (int i = 0; i<order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> methods[a].name.compareTo(methods[b].name));
+		methodsBySelector = new int[order.length];
+		for (int i = 0; i<order.length; i++) methodsBySelector[i] = order[i];
+	}
+
+	/** Return the method defined by this class for selector, or null */
+	public FrozenBlock getDefinedMethod(String selector) {
+		int lo = 0, hi = methodsBySelector.length-1;
+		while ( lo<=hi ) {
+			int mid = (lo+hi) >>> 1;
+			FrozenBlock m = methods[methodsBySelector[mid]];
+			int c = m.name.compareTo(selector);
+			if ( c==0 ) return m;
+			if ( c<0 ) lo = mid+1;
+			else hi = mid-1;
+		}
+		return null;
+	}
+
+	/** Return the index of a field defined by this class, or -1 */
+	public int getDefinedFieldIndex(String name) {
+		for (int i = 0; i<fields.length; i++) {
+			if ( fields[i].equals(name) ) return firstField+i;
+		}
+		return -1;
+	}
+
+	/** See {@link FrozenSymbolTable#estimateSize} */
+	public long estimateSize() {
+		long n = FrozenSymbolTable.objectSize(10) + FrozenSymbolTable.stringSize(fileName) +
+			FrozenSymbolTable.arraySize(fields.length, 4) +
+			FrozenSymbolTable.arraySize(literals.length, 4) +
+			FrozenSymbolTable.arraySize(methods.length, 4) +
+			FrozenSymbolTable.arraySize(methodsBySelector.length, 4);
+		for (FrozenBlock m : methods) {
+			n += m.estimateSize();
+		}
+		return n;
+	}
+
+	/** Return the JSON of {@link STClass#serialize()} */
+	public JsonObject serialize() {
+		JsonObjectBuilder builder = Json.createObjectBuilder();
+		builder.add("name", name);
+		if ( superClassName!=null ) {
+			builder.add("superClassName", superClassName);
+		}
+		if ( fileName!=null ) {
+			builder.add("fileName", fileName);
+		}
+		JsonArrayBuilder litArray = Json.createArrayBuilder();
+		for (String literal : literals) {
+			litArray.add(literal);
+		}
+		builder.add("literals", litArray);
+		JsonArrayBuilder fieldArray = Json.createArrayBuilder();
+		for (String f : fields) {
+			fieldArray.add(f);
+		}
+		builder.add("fields", fieldArray);
+		List<FrozenBlock> ordered = new ArrayList<>(Arrays.asList(methods));
+		ordered.sort((a, b) -> Long.compare(b.invocations, a.invocations));
+		JsonArrayBuilder methodArray = Json.createArrayBuilder();
+		for (FrozenBlock m : ordered) {
+			methodArray.add(m.serialize());
+		}
+		builder.add("methods", methodArray);
+		return builder.build();
+	}
+
+	@Override
+	public String toString() {
+		return "class "+name;
+	}
+}
@@ -0,0 +1,121 @@
+package smalltalk.compiler.symbols;
+
+import org.antlr.symtab.Symbol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A compact, immutable copy of the classes in an {@link STSymbolTable}
+ *  after compilation, for processes that keep many programs loaded. See
+ *  {@link #freeze}. Unlike the symbol table, it keeps no hash-based scopes,
+ *  no parse trees and no mutable compiler state, and it may be shared
+ *  between threads.
+ */
+public class FrozenSymbolTable {
+	/** The classes in order of definition */
+	public final FrozenClass[] classes;
+	/** Indexes into classes, sorted by class name */
+	protected final int[] classesByName;
+
+	protected FrozenSymbolTable(FrozenClass[] classes) {
+		this.classes = classes;
+		Integer[] order = new Integer[classes.length];
+		for (int i = 0; i<order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> classes[a].name.compareTo(classes[b].name));
+		classesByName = new int[order.length];
+		for (int i = 0; i<order.length; i++) classesByName[i] = order[i];
+	}
+
+	/** Copy the compiled classes of symtab; symtab can then be dropped */
+	public static FrozenSymbolTable freeze(STSymbolTable symtab) {
+		List<STClass> stClasses = new ArrayList<>();
+		Map<String, Integer> indexes = new HashMap<>();
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( s instanceof STClass ) {
+				indexes.put(s.getName(), stClasses.size());
+				stClasses.add((STClass) s);
+			}
+		}
+		FrozenClass[] classes = new FrozenClass[stClasses.size()];
+		for (int i = 0; i<classes.length; i++) {
+			STClass cls = stClasses.get(i);
+			Integer superClass = cls.getSuperClassName()!=null ? indexes.get(cls.getSuperClassName()) : null;
+			classes[i] = new FrozenClass(cls, superClass!=null ? superClass : -1);
+		}
+		return new FrozenSymbolTable(classes);
+	}
+
+	/** Return the index of the class called name, or -1 */
+	public int indexOf(String name) {
+		int lo = 0, hi = classesByName.length-1;
+		while ( lo<=hi ) {
+			int mid = (lo+hi) >>> 1;
+			int c = classes[classesByName[mid]].name.compareTo(name);
+			if ( c==0 ) return classesByName[mid];
+			if ( c<0 ) lo = mid+1;
+			else hi = mid-1;
+		}
+		return -1;
+	}
+
+	public FrozenClass getClass(String name) {
+		int i = indexOf(name);
+		return i>=0 ? classes[i] : null;
+	}
+
+	public FrozenClass getSuperClass(FrozenClass cls) {
+		return cls.superClass>=0 ? classes[cls.superClass] : null;
+	}
+
+	/** Look up selector in cls and then its superclasses, like the VM */
+	public FrozenBlock resolveMethod(FrozenClass cls, String selector) {
+		for (FrozenClass c = cls; c!=null; c = getSuperClass(c)) {
+			FrozenBlock m = c.getDefinedMethod(selector);
+			if ( m!=null ) return m;
+		}
+		return null;
+	}
+
+	/** Estimate the bytes of heap this table retains, assuming a 64-bit JVM
+	 *  with compressed references. Interned names are counted as references
+	 *  only, since the programs loaded side by side share them.
+	 */
+	public long estimateSize() {
+		long n = objectSize(2) + arraySize(classes.length, 4) + arraySize(classesByName.length, 4);
+		for (FrozenClass c : classes) {
+			n += c.estimateSize();
+		}
+		return n;
+	}
+
+	/** An object with a 12-byte header and the given number of 4-byte fields */
+	static long objectSize(int fields) {
+		return align(12 + 4L*fields);
+	}
+
+	/** An array with a 16-byte header */
+	static long arraySize(int length, int elementSize) {
+		return align(16 + (long)length*elementSize);
+	}
+
+	/** A String that isn't interned, with its byte array */
+	static long stringSize(String s) {
+		return s!=null ? objectSize(3) + arraySize(s.length(), 1) : 0;
+	}
+
+	static long align(long bytes) {
+		return (bytes+7) & ~7L;
+	}
+
+	/** Return the index of field name in instances of cls, or -1 */
+	public int getFieldIndex(FrozenClass cls, String name) {
+		for (FrozenClass c = cls; c!=null; c = getSuperClass(c)) {
+			int i = c.getDefinedFieldIndex(name);
+			if ( i>=0 ) return i;
+		}
+		return -1;
+	}
+}
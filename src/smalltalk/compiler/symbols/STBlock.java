@@ -32,6 +32,23 @@ import org.antlr.v4.runtime.ParserRuleContext;
  *  method as a block with a name.
  */
 public class STBlock extends MethodSymbol {
+	/** How much of its surroundings a block needs at runtime.
+	 *
+	 *  CLEAN blocks reference nothing outside of themselves (no outer
+	 *  variables, no self, no fields, no ^) so the VM can create them once
+	 *  per method rather than capturing the enclosing context.
+	 *
+	 *  COPYING blocks read self or outer variables that are never assigned,
+	 *  so the VM can copy those values into the block when it's created.
+	 *  It must do so before the creating frame is reused, since their code
+	 *  still addresses those variables by context depth.
+	 *
+	 *  FULL blocks assign outer variables, read outer variables that are
+	 *  assigned somewhere, or do a non-local ^ return; these need the
+	 *  enclosing context itself.
+	 */
+	public enum Kind { CLEAN, COPYING, FULL }
+
 	/** The block number within the surrounding method or block.
 	 *  To push a code block onto the operand stack at runtime,
 	 *  we push its index as an argument of the BLOCK instruction.
@@ -42,6 +59,9 @@ public class STBlock extends MethodSymbol {
 	public int numNestedBlocks;
 
 	public STCompiledBlock compiledBlock;
+
+	/** Set by {@link smalltalk.compiler.ClassifyBlocks}; FULL until then */
+	public Kind kind = Kind.FULL;
 	Scope scope = this;
 	int scopeNum = 0;
 
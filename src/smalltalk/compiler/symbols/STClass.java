@@ -13,6 +13,7 @@ import javax.json.JsonObject;
 import javax.json.JsonObjectBuilder;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Predicate;
 
 /** Represents a compile-time Smalltalk class in a Smalltalk program; it
  *  corresponds to STMetaClassObject in the VM.
@@ -25,6 +26,9 @@ public class STClass extends ClassSymbol {
 	 */
 	public final StringTable stringTable = new StringTable();
 
+	/** The name of the file that defined this class, if known */
+	public String fileName;
+
 	public STClass(String name, String superClassName) {
 		super(name);
 		setSuperClass(superClassName);
@@ -49,11 +53,21 @@ public class STClass extends ClassSymbol {
 	 *  The VM loads such JSON to execute code.
 	 */
 	public JsonObject serialize() {
+		return serialize(m -> true);
+	}
+
+	/** Like {@link #serialize()} but with only the methods keep accepts,
+	 *  such as those {@link smalltalk.compiler.TreeShaker} found reachable.
+	 */
+	public JsonObject serialize(Predicate<STMethod> keep) {
 		JsonObjectBuilder builder =  Json.createObjectBuilder();
 		builder.add("name", name);
 		if ( superClassName!=null ) {
 			builder.add("superClassName", superClassName);
 		}
+		if ( fileName!=null ) {
+			builder.add("fileName", fileName);
+		}
 		JsonArrayBuilder litArray = Json.createArrayBuilder();
 		if ( stringTable!=null ) {
 			for (String literal : stringTable.toArray()) {
@@ -67,13 +81,26 @@ public class STClass extends ClassSymbol {
 		}
 		builder.add("fields", fieldArray);
 		JsonArrayBuilder methodArray = Json.createArrayBuilder();
-		for(MethodSymbol m : getDefinedMethods()) {
-			methodArray.add(((STMethod) m).compiledBlock.serialize());
+		for(STMethod m : getMethodsInSerializeOrder()) {
+			if ( keep.test(m) ) methodArray.add(m.compiledBlock.serialize());
 		}
 		builder.add("methods", methodArray);
 		return builder.build();
 	}
 
+	/** Return the defined methods, most invoked first if compiled with a
+	 *  profile so the VM loads hot code together, otherwise in definition
+	 *  order.
+	 */
+	public List<STMethod> getMethodsInSerializeOrder() {
+		List<STMethod> methods = new ArrayList<>();
+		for (MethodSymbol m : getDefinedMethods()) {
+			methods.add((STMethod) m);
+		}
+		methods.sort((a, b) -> Long.compare(b.compiledBlock.invocations, a.compiledBlock.invocations));
+		return methods;
+	}
+
 	public String toTestString() { return getAsString(); }
 
 	public String getAsString() {
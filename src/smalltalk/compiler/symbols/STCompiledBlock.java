@@ -1,15 +1,16 @@
 package smalltalk.compiler.symbols;
 
+import org.antlr.symtab.Scope;
 import org.antlr.symtab.Utils;
 import org.stringtemplate.v4.ST;
-import org.stringtemplate.v4.misc.ErrorBuffer;
+import org.stringtemplate.v4.STErrorListener;
 import org.stringtemplate.v4.misc.STMessage;
 import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.Primitive;
 
-import javax.json.Json;
-import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
-import javax.json.JsonObjectBuilder;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /** This object represents the compiled code for a block or method and is
  *  more or less equivalent to the class with same name in VM.
@@ -32,17 +33,26 @@ import javax.json.JsonObjectBuilder;
  */
 public class STCompiledBlock {
 	// Used to trap stringtemplate errors (e.g., can set breakpoint in these methods).
-	public static final ErrorBuffer templateErrorListener = new ErrorBuffer() {
+	// Errors are only counted so that long-running compilers retain nothing.
+	public static final TemplateErrorCounter templateErrorListener = new TemplateErrorCounter();
+
+	public static class TemplateErrorCounter implements STErrorListener {
+		protected final AtomicLong errors = new AtomicLong();
+
 		@Override
-		public void compileTimeError(STMessage stMessage) {
-			super.compileTimeError(stMessage);
-		}
+		public void compileTimeError(STMessage stMessage) { errors.incrementAndGet(); }
 
 		@Override
-		public void runTimeError(STMessage stMessage) {
-			super.runTimeError(stMessage);
-		}
-	};
+		public void runTimeError(STMessage stMessage) { errors.incrementAndGet(); }
+
+		@Override
+		public void IOError(STMessage stMessage) { errors.incrementAndGet(); }
+
+		@Override
+		public void internalError(STMessage stMessage) { errors.incrementAndGet(); }
+
+		public long getNumberOfErrors() { return errors.get(); }
+	}
 
 	public static final String testStringTemplate =
 		"name: <if(isClassMethod)>static <endif><name>\n" +
@@ -76,6 +86,36 @@ public class STCompiledBlock {
  	 */
 	public STCompiledBlock[] blocks;
 
+	/** The address of each SEND or SEND_SUPER instruction in {@link #bytecode}.
+	 *  The position of an address within this table is the inline cache
+	 *  slot of that send site; the VM keeps one cache per slot so it can
+	 *  skip the method lookup when the receiver's class repeats.
+	 */
+	public int[] sendSites;
+
+	/** If compiled with -profile, how many times the profiled VM ran this
+	 *  block; 0 otherwise.
+	 */
+	public long invocations;
+
+	/** If compiled with -profile, the receiver classes seen by each send in
+	 *  {@link #sendSites}, most frequent first, so the VM can set up its
+	 *  inline caches before the first send; otherwise null.
+	 */
+	public List<List<String>> siteReceivers;
+
+	/** If compiled with -dbg, the source location of the instructions in
+	 *  {@link #bytecode}, encoded by {@link smalltalk.compiler.LineTable};
+	 *  otherwise null.
+	 */
+	public byte[] lineTable;
+
+	/** The maximum depth of the operand stack during execution of
+	 *  {@link #bytecode}, not counting arguments and locals. The VM can
+	 *  allocate a frame of exactly this size and skip overflow checks.
+	 */
+	public int maxStack;
+
 	/** The fixed number of arguments taken by this method */
 	public final int nargs;
 
@@ -87,9 +127,34 @@ public class STCompiledBlock {
  	 */
 	public final String primitiveName;
 
+	/** The {@link Primitive#id} of primitiveName, or {@link Primitive#NONE};
+	 *  the VM can index its primitive table with this instead of the name.
+	 */
+	public final int primitiveID;
+
 	/** True if method was defined as a class method in Smalltalk code */
 	public final boolean isClassMethod;
 
+	/** Whether a [...] block is clean, copying, or full; null for methods.
+	 *  The VM need only capture the enclosing context for full blocks.
+	 */
+	public final STBlock.Kind blockKind;
+
+	/** True if a block created by this method or block can outlive the
+	 *  activation and still refer to its context, which is only the case
+	 *  for {@link STBlock.Kind#FULL} blocks. When false, the VM can run the
+	 *  activation in a reusable stack frame instead of a heap context.
+	 *  There is no thisContext in our Smalltalk, so nothing else can
+	 *  capture a context.
+	 *
+	 *  {@link STBlock.Kind#COPYING} blocks don't count, although their code
+	 *  reads self and outer variables with push_local at depth&gt;0 as if
+	 *  from the creating frames: the VM must copy those frames' values when
+	 *  it executes the BLOCK instruction and have push_local read the copy,
+	 *  since the frames may be reused, such as by a TAIL_SEND.
+	 */
+	public final boolean contextEscapes;
+
 	public STCompiledBlock(STClass enclosingClass, STBlock blk) {
 		this.enclosingClass = enclosingClass;
 		this.name = blk.getName();
@@ -102,7 +167,19 @@ public class STCompiledBlock {
 		else {
 			primitiveName = null;
 		}
+		primitiveID = Primitive.idOf(primitiveName);
 		isClassMethod = blk instanceof STMethod && ((STMethod) blk).isClassMethod;
+		blockKind = blk.isMethod() ? null : blk.kind;
+		contextEscapes = createsFullBlock(blk);
+	}
+
+	public static boolean createsFullBlock(STBlock blk) {
+		for (Scope nested : blk.getNestedScopedSymbols()) {
+			if ( nested instanceof STBlock && ((STBlock)nested).kind==STBlock.Kind.FULL ) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	public String toTestString() { return getAsString(); }
@@ -112,30 +189,7 @@ public class STCompiledBlock {
 	 *  The VM loads such JSON to execute code.
 	 */
 	public JsonObject serialize() {
-		JsonObjectBuilder builder = Json.createObjectBuilder();
-		builder.add("name", name);
-		builder.add("isClassMethod", isClassMethod);
-		builder.add("qualifiedName", qualifiedName);
-		if ( primitiveName!=null ) {
-			builder.add("primitiveName", primitiveName);
-		}
-		builder.add("nargs", nargs);
-		builder.add("nlocals", nlocals);
-		JsonArrayBuilder codeArray = Json.createArrayBuilder();
-		if ( bytecode!=null ) {
-			for (byte b : bytecode) {
-				codeArray.add(b);
-			}
-		}
-		builder.add("bytecode", codeArray);
-		JsonArrayBuilder blockArray = Json.createArrayBuilder();
-		if ( blocks!=null ) {
-			for (STCompiledBlock block : blocks) {
-				blockArray.add(block.serialize());
-			}
-		}
-		builder.add("blocks", blockArray);
-		return builder.build();
+		return new FrozenBlock(this, null).serialize();
 	}
 
 	public String getAsString() {
@@ -1,6 +1,7 @@
 package smalltalk.compiler.symbols;
 
 import org.antlr.symtab.GlobalScope;
+import org.antlr.symtab.Symbol;
 
 public class STSymbolTable {
 	public final GlobalScope GLOBALS;
@@ -8,4 +9,9 @@ public class STSymbolTable {
 	public STSymbolTable() {
 		this.GLOBALS = new GlobalScope(null);
 	}
+
+	/** Remove a global such as a class about to be redefined; return it or null */
+	public Symbol undefine(String name) {
+		return GLOBALS.getMembers().remove(name);
+	}
 }
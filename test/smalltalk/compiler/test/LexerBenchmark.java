@@ -0,0 +1,81 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import smalltalk.compiler.SmalltalkLexer;
+import smalltalk.compiler.SmalltalkScanner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/** Time the generated lexer and the hand-written scanner alone over every
+ *  .st file in a directory tree:
+ *
+ *  $ java smalltalk.compiler.test.LexerBenchmark [dir [iterations]]
+ *
+ *  The default is test/samples, 200 times after as many warmup passes.
+ *  Tokens counted exclude whitespace and comments.
+ */
+public class LexerBenchmark {
+	public static void main(String[] args) throws IOException {
+		Path dir = Paths.get(args.length>0 ? args[0] : "test/samples");
+		int iterations = args.length>1 ? Integer.parseInt(args[1]) : 200;
+		List<String> corpus = load(dir);
+		long chars = 0;
+		for (String s : corpus) chars += s.length();
+
+		time("SmalltalkLexer", corpus, chars, iterations, SmalltalkLexer::new);
+		time("SmalltalkScanner", corpus, chars, iterations, SmalltalkScanner::new);
+	}
+
+	public static void time(String name, List<String> corpus, long chars, int iterations,
+	                        Function<CharStream, TokenSource> lexer)
+	{
+		lex(corpus, iterations, lexer); // warm up
+		long start = System.nanoTime();
+		long tokens = lex(corpus, iterations, lexer);
+		long elapsed = System.nanoTime() - start;
+
+		double secs = elapsed / 1e9;
+		System.out.printf("%s: %d files, %d chars, %d tokens x %d iterations in %.3fs%n",
+		                  name, corpus.size(), chars, tokens/iterations, iterations, secs);
+		System.out.printf("%s: %.0f tokens/s, %.1f MB/s%n",
+		                  name, tokens/secs, chars*iterations/secs/1e6);
+	}
+
+	public static List<String> load(Path dir) throws IOException {
+		List<String> corpus = new ArrayList<>();
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(dir)) {
+			files = paths.filter(p -> p.toString().endsWith(".st")).sorted().collect(Collectors.toList());
+		}
+		for (Path f : files) {
+			corpus.add(new String(Files.readAllBytes(f), StandardCharsets.UTF_8));
+		}
+		return corpus;
+	}
+
+	/** Return the number of tokens seen */
+	public static long lex(List<String> corpus, int iterations, Function<CharStream, TokenSource> lexer) {
+		long n = 0;
+		for (int i = 0; i<iterations; i++) {
+			for (String s : corpus) {
+				TokenSource source = lexer.apply(CharStreams.fromString(s));
+				for (Token t = source.nextToken(); t.getType()!=Token.EOF; t = source.nextToken()) {
+					if ( t.getChannel()==Token.DEFAULT_CHANNEL ) n++;
+				}
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,70 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.runtime.ArrayStorage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestArrayStorage {
+	/** Java's boxes as Smalltalk objects; null is nil */
+	static final ArrayStorage.Boxing JAVA = new ArrayStorage.Boxing() {
+		public Object nil() { return null; }
+		public boolean isInteger(Object o) { return o instanceof Integer; }
+		public int intValue(Object o) { return (Integer)o; }
+		public Object boxInt(int v) { return v; }
+		public boolean isFloat(Object o) { return o instanceof Float; }
+		public float floatValue(Object o) { return (Float)o; }
+		public Object boxFloat(float v) { return v; }
+	};
+
+	@Test public void testNewArrayHoldsNil() {
+		ArrayStorage a = new ArrayStorage(3, JAVA);
+		a.atPut(1, null);
+		assertEquals(ArrayStorage.Strategy.EMPTY, a.getStrategy());
+		assertNull(a.at(2));
+	}
+
+	@Test public void testIntegers() {
+		ArrayStorage a = new ArrayStorage(4, JAVA);
+		for (int i = 0; i<3; i++) a.atPut(i, i*10);
+		assertEquals(ArrayStorage.Strategy.INTEGER, a.getStrategy());
+		assertArrayEquals(new Object[] {0, 10, 20, null}, a.toObjectArray());
+		a.atPut(1, null);
+		assertEquals(ArrayStorage.Strategy.INTEGER, a.getStrategy());
+		assertNull(a.at(1));
+	}
+
+	@Test public void testFloats() {
+		ArrayStorage a = new ArrayStorage(2, JAVA);
+		a.atPut(1, 2.5f);
+		assertEquals(ArrayStorage.Strategy.FLOAT, a.getStrategy());
+		assertArrayEquals(new Object[] {null, 2.5f}, a.toObjectArray());
+	}
+
+	@Test public void testFallBackToObjects() {
+		ArrayStorage a = new ArrayStorage(3, JAVA);
+		a.atPut(0, 1);
+		a.atPut(1, 2);
+		a.atPut(2, "three");
+		assertEquals(ArrayStorage.Strategy.OBJECT, a.getStrategy());
+		assertArrayEquals(new Object[] {1, 2, "three"}, a.toObjectArray());
+		a.atPut(2, 3);
+		assertEquals(ArrayStorage.Strategy.OBJECT, a.getStrategy());
+		assertEquals(3, a.at(2));
+	}
+
+	@Test public void testFloatIntoIntegerArrayFallsBack() {
+		ArrayStorage a = new ArrayStorage(2, JAVA);
+		a.atPut(0, 1);
+		a.atPut(1, 1.5f);
+		assertEquals(ArrayStorage.Strategy.OBJECT, a.getStrategy());
+		assertArrayEquals(new Object[] {1, 1.5f}, a.toObjectArray());
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void testBadIndex() {
+		new ArrayStorage(2, JAVA).at(2);
+	}
+}
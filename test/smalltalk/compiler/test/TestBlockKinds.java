@@ -0,0 +1,154 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+import smalltalk.compiler.symbols.STBlock.Kind;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestBlockKinds extends BaseTest {
+	@Test public void testCleanBlock() {
+		String input = "{1. 2. 3} collect: [:x | x * 2].";
+		assertEquals("[CLEAN]", kinds("MainClass", "main", input));
+	}
+
+	@Test public void testGlobalRefIsClean() {
+		String input = "1 to: 5 do: [:i | Transcript show: i].";
+		assertEquals("[CLEAN]", kinds("MainClass", "main", input));
+	}
+
+	@Test public void testSelfRefIsCopying() {
+		String input =
+			"class T [\n" +
+			"    foo [ ^[:x | self bar: x] ]\n" +
+			"]\n";
+		assertEquals("[COPYING]", kinds("T", "foo", input));
+	}
+
+	@Test public void testFieldRefIsCopying() {
+		String input =
+			"class T [\n" +
+			"    |y|\n" +
+			"    foo [ ^[:x | y := x] ]\n" +
+			"]\n";
+		assertEquals("[COPYING]", kinds("T", "foo", input));
+	}
+
+	@Test public void testReadUnassignedArgIsCopying() {
+		String input =
+			"class T [\n" +
+			"    foo: n [ ^[:x | x + n] ]\n" +
+			"]\n";
+		assertEquals("[COPYING]", kinds("T", "foo:", input));
+	}
+
+	@Test public void testReadAssignedLocalIsFull() {
+		String input =
+			"class T [\n" +
+			"    foo [ |n| n := 1. ^[:x | x + n] ]\n" +
+			"]\n";
+		assertEquals("[FULL]", kinds("T", "foo", input));
+	}
+
+	@Test public void testWriteOuterLocalIsFull() {
+		String input =
+			"class T [\n" +
+			"    size [ |n| self do: [:each | n := n + 1]. ^n ]\n" +
+			"]\n";
+		assertEquals("[FULL]", kinds("T", "size", input));
+	}
+
+	@Test public void testReturnIsFull() {
+		String input =
+			"class T [\n" +
+			"    or: b [ b ifTrue: [ ^true ]. ^false ]\n" +
+			"]\n";
+		assertEquals("[FULL]", kinds("T", "or:", input));
+	}
+
+	@Test public void testNestedFullMakesOuterFull() {
+		String input =
+			"class T [\n" +
+			"    foo [ [:x | x ifTrue: [^x]] value: true ]\n" +
+			"]\n";
+		assertEquals("[FULL, FULL]", kinds("T", "foo", input));
+	}
+
+	@Test public void testNestedReadOfEnclosingBlockArg() {
+		String input =
+			"class T [\n" +
+			"    foo [ ^[:x | [:y | x + y]] ]\n" +
+			"]\n";
+		assertEquals("[CLEAN, COPYING]", kinds("T", "foo", input));
+	}
+
+	@Test public void testSameNamesInOtherClassDontInterfere() {
+		String input =
+			"class S [\n" +
+			"    foo: n [ n := 1. ^[:x | x + n] ]\n" +
+			"]\n" +
+			"class T [\n" +
+			"    foo: n [ ^[:x | x + n] ]\n" +
+			"]\n";
+		assertEquals("[FULL]", kinds("S", "foo:", input));
+		assertEquals("[COPYING]", kinds("T", "foo:", input));
+	}
+
+	@Test public void testMethodHasNoBlockKind() {
+		String input = "class T [ foo [ ^1 ] ]";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		STClass T = (STClass)symtab.GLOBALS.resolve("T");
+		assertEquals(null, T.resolveMethod("foo").compiledBlock.blockKind);
+	}
+
+	@Test public void testContextEscapesOnlyForFullBlocks() {
+		String input =
+			"class T [\n" +
+			"    clean [ ^[:x | x * 2] ]\n" +
+			"    copying: n [ ^[:x | x + n] ]\n" +
+			"    full [ |n| n := 0. [:x | n := n + x] value: 1. ^n ]\n" +
+			"    none [ ^1 ]\n" +
+			"]\n";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		STClass T = (STClass)symtab.GLOBALS.resolve("T");
+		assertFalse(T.resolveMethod("clean").compiledBlock.contextEscapes);
+		assertFalse(T.resolveMethod("copying:").compiledBlock.contextEscapes);
+		assertTrue(T.resolveMethod("full").compiledBlock.contextEscapes);
+		assertFalse(T.resolveMethod("none").compiledBlock.contextEscapes);
+	}
+
+	@Test public void testNestedFullBlockEscapesOuterBlockContext() {
+		String input =
+			"class T [\n" +
+			"    foo [ [:x | [^x] value] value: 1 ]\n" +
+			"]\n";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		STClass T = (STClass)symtab.GLOBALS.resolve("T");
+		STCompiledBlock foo = T.resolveMethod("foo").compiledBlock;
+		assertTrue(foo.contextEscapes);
+		assertTrue(foo.blocks[0].contextEscapes);
+		assertFalse(foo.blocks[1].contextEscapes);
+	}
+
+	public String kinds(String className, String selector, String input) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile(className+".st", input);
+		STClass cl = (STClass)symtab.GLOBALS.resolve(className);
+		List<Kind> kinds = new ArrayList<>();
+		for (STCompiledBlock blk : cl.resolveMethod(selector).compiledBlock.blocks) {
+			kinds.add(blk.blockKind);
+		}
+		return kinds.toString();
+	}
+}
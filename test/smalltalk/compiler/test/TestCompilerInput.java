@@ -0,0 +1,55 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestCompilerInput {
+	static final String input =
+		"class T [\n" +
+		"    |x|\n" +
+		"    greet [ x := 'h\u00e9llo \u2192 w\u00f6rld'. ^x size ]\n" +
+		"]\n" +
+		"T new greet.\n";
+
+	@Test public void testPathSameAsString() throws Exception {
+		Path dir = Files.createTempDirectory("stc");
+		Path file = dir.resolve("T.st");
+		try {
+			Files.write(file, input.getBytes(StandardCharsets.UTF_8));
+			Compiler fromPath = new Compiler();
+			fromPath.genDbg = true;
+			STSymbolTable a = fromPath.compile(file);
+			Compiler fromString = new Compiler();
+			fromString.genDbg = true;
+			STSymbolTable b = fromString.compile("T.st", input);
+			assertEquals(Collections.emptyList(), fromPath.errors);
+			assertEquals(serialize(b, "T"), serialize(a, "T"));
+			assertEquals(serialize(b, "MainClass"), serialize(a, "MainClass"));
+			assertEquals("T.st", ((STClass)a.GLOBALS.resolve("T")).fileName);
+		}
+		finally {
+			Files.deleteIfExists(file);
+			Files.delete(dir);
+		}
+	}
+
+	@Test public void testSTCFromClasspath() {
+		// found via the classpath, not the file system
+		STSymbolTable symtab = STC.compile("image.st", false);
+		assertEquals("image.st", ((STClass)symtab.GLOBALS.resolve("Object")).fileName);
+	}
+
+	static String serialize(STSymbolTable symtab, String className) {
+		return ((STClass)symtab.GLOBALS.resolve(className)).serialize().toString();
+	}
+}
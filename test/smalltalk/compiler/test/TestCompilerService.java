@@ -0,0 +1,100 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.CompilationResult;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.CompilerService;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestCompilerService {
+	static final String input =
+		"class T [\n" +
+		"    |x|\n" +
+		"    foo [ x := 1. ^[:y | x + y] value: 2 ]\n" +
+		"]\n" +
+		"T new foo.\n";
+
+	@Test public void testObjectCode() {
+		CompilerService service = new CompilerService();
+		CompilationResult result = service.compile("T.st", input);
+		assertFalse(result.hasErrors());
+		assertEquals(Arrays.asList("T", "MainClass"), result.getClassNames());
+
+		STSymbolTable symtab = new Compiler().compile("T.st", input);
+		assertEquals(((STClass) symtab.GLOBALS.resolve("T")).serialize(), result.getObjectCode("T"));
+		assertEquals(1, service.getCompilations());
+		assertEquals(0, service.getLiveCompilations());
+		assertTrue(service.getDFAStates()>0);
+	}
+
+	@Test public void testResultSize() {
+		CompilerService service = new CompilerService();
+		CompilationResult small = service.compile("T.st", input);
+		CompilationResult big = service.compile("T.st", input.replace("foo [", "foo [ x := 1+2+3+4+5+6+7+8+9. "));
+		assertTrue(small.estimateSize()>small.classes.estimateSize());
+		assertTrue(big.estimateSize()>small.estimateSize());
+		assertEquals(small.estimateSize()+big.estimateSize(), service.getResultBytes());
+	}
+
+	@Test public void testErrors() {
+		CompilerService service = new CompilerService();
+		CompilationResult result = service.compile("T.st", "class T [ foo [ y := 1 ] ]");
+		assertEquals(Arrays.asList("unknown variable y in global>>T>>foo"), result.errors);
+		assertEquals(Collections.emptyList(), result.getClassNames());
+
+		result = service.compile("T.st", "class T [ foo [ ^1 ]");
+		assertEquals(1, result.errors.size());
+		assertTrue(result.errors.get(0).startsWith("T.st line 1:"));
+		assertEquals(2, service.getFailedCompilations());
+	}
+
+	@Test public void testClearDFA() {
+		CompilerService service = new CompilerService();
+		service.maxDFAStates = 0;
+		service.compile("T.st", input);
+		assertEquals(0, service.getDFAStates());
+		assertFalse(service.compile("T.st", input).hasErrors());
+	}
+
+	@Test public void testConcurrentCompilationsClearingDFA() throws Exception {
+		CompilerService service = new CompilerService();
+		service.maxDFAStates = 0; // try to clear after every compilation
+		testConcurrentCompilations(service);
+	}
+
+	@Test public void testConcurrentCompilations() throws Exception {
+		testConcurrentCompilations(new CompilerService());
+	}
+
+	static void testConcurrentCompilations(CompilerService service) throws Exception {
+		String expected = service.compile("T.st", input).getObjectCode("T").toString();
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<CompilationResult>> results = new ArrayList<>();
+			for (int i = 0; i<200; i++) {
+				results.add(pool.submit(() -> service.compile("T.st", input)));
+			}
+			for (Future<CompilationResult> f : results) {
+				assertEquals(expected, f.get().getObjectCode("T").toString());
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+		assertEquals(201, service.getCompilations());
+		assertEquals(0, service.getLiveCompilations());
+	}
+}
@@ -0,0 +1,126 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.DependencyGraph;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestDependencyGraph {
+	static final String A =
+		"class A [\n" +
+		"    |x|\n" +
+		"    foo [ ^x ]\n" +
+		"]\n";
+	static final String B =
+		"class B : A [\n" +
+		"    bar [ ^self foo ]\n" +
+		"]\n";
+	static final String C =
+		"class C [\n" +
+		"    baz [ ^B new ]\n" +
+		"]\n" +
+		"class D [\n" +
+		"    qux [ ^3 ]\n" +
+		"]\n";
+
+	@Test public void testEdges() {
+		DependencyGraph g = build();
+		DependencyGraph.Node b = g.getNode("B");
+		assertEquals("A", b.superClassName);
+		assertEquals("B.st", b.fileName);
+		assertEquals(set("foo"), b.sends);
+		assertEquals(set("bar"), b.defines);
+		DependencyGraph.Node c = g.getNode("C");
+		assertEquals(set("B"), c.globals);
+		assertEquals(set("new"), c.sends);
+	}
+
+	@Test public void testRebuildSubclasses() {
+		DependencyGraph g = build();
+		assertEquals(set("A", "B"), g.classesToRebuild(Arrays.asList("A.st"), false));
+		assertEquals(set("A.st", "B.st"), g.filesToRebuild(Arrays.asList("A.st"), false));
+		assertEquals(set("B"), g.classesToRebuild(Arrays.asList("B.st"), false));
+		assertEquals(set("C", "D"), g.classesToRebuild(Arrays.asList("C.st"), false));
+		assertEquals(Collections.emptySet(), g.classesToRebuild(Arrays.asList("Z.st"), false));
+	}
+
+	@Test public void testRebuildWholeProgram() {
+		DependencyGraph g = build();
+		// C refers to B, a subclass of A
+		assertEquals(set("A", "B", "C"), g.classesToRebuild(Arrays.asList("A.st"), true));
+	}
+
+	@Test public void testPersistAndMerge() throws Exception {
+		Path dir = Files.createTempDirectory("deps");
+		try {
+			build().write(dir);
+			DependencyGraph g = DependencyGraph.load(dir);
+			assertEquals(build().serialize(), g.serialize());
+
+			// B.st now defines E instead of B
+			STSymbolTable symtab = new STSymbolTable();
+			compile(symtab, "A.st", A);
+			DependencyGraph changed = new DependencyGraph();
+			changed.add((STClass)
+				compile(symtab, "B.st", "class E : A [ ]\n").GLOBALS.resolve("E"));
+			g.merge(changed);
+			assertEquals(null, g.getNode("B"));
+			assertEquals("A", g.getNode("E").superClassName);
+		}
+		finally {
+			Files.deleteIfExists(dir.resolve(DependencyGraph.FILE_NAME));
+			Files.delete(dir);
+		}
+	}
+
+	@Test public void testSameNameInTwoDirectories() {
+		STSymbolTable symtab = new STSymbolTable();
+		compile(symtab, "A.st", A);
+		DependencyGraph g = DependencyGraph.build(symtab, "lib/A.st");
+		symtab = new STSymbolTable();
+		compile(symtab, "A.st", C);
+		g.merge(DependencyGraph.build(symtab, "app/A.st"));
+		assertEquals("lib/A.st", g.getNode("A").fileName);
+		assertEquals("app/A.st", g.getNode("C").fileName);
+		assertEquals(set("A"), g.classesToRebuild(Arrays.asList("lib/A.st"), false));
+		assertEquals(set("C", "D"), g.classesToRebuild(Arrays.asList("app/A.st"), false));
+	}
+
+	@Test public void testSourcePath() {
+		Path root = Paths.get("project");
+		assertEquals("lib/A.st", DependencyGraph.sourcePath(root, "lib/A.st"));
+		assertEquals("lib/A.st", DependencyGraph.sourcePath(root, "./app/../lib/A.st"));
+		assertEquals("lib/A.st", DependencyGraph.sourcePath(root,
+			root.toAbsolutePath().resolve("lib/A.st").toString()));
+	}
+
+	static DependencyGraph build() {
+		STSymbolTable symtab = new STSymbolTable();
+		compile(symtab, "A.st", A);
+		compile(symtab, "B.st", B);
+		compile(symtab, "C.st", C);
+		return DependencyGraph.build(symtab);
+	}
+
+	static STSymbolTable compile(STSymbolTable symtab, String fileName, String input) {
+		Compiler c = new Compiler(symtab);
+		c.compile(fileName, input);
+		assertEquals(Collections.emptyList(), c.errors);
+		return symtab;
+	}
+
+	static Set<String> set(String... strings) {
+		return new TreeSet<>(Arrays.asList(strings));
+	}
+}
@@ -0,0 +1,114 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.Devirtualizer;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDevirtualize {
+	static final String program =
+		"class A [ bar [ ^1 ] foo [ ^2 ] ]\n" +
+		"class B [ bar [ ^3 ] ]\n" +
+		"A new foo. A new bar.\n";
+
+	@Test public void testSoleImplementor() {
+		STSymbolTable symtab = compile(program, true);
+		Devirtualizer d = new Devirtualizer(symtab);
+		assertEquals("A", d.getSoleImplementor("foo", false).getEnclosingScope().getName());
+		assertNull(d.getSoleImplementor("bar", false));
+		assertNull(d.getSoleImplementor("baz", false));
+	}
+
+	@Test public void testSendDirect() {
+		STCompiledBlock main = main(compile(program, true));
+		String[] literals = main.enclosingClass.stringTable.toArray();
+		int foo = main.sendSites[1]; // after new
+		int bar = main.sendSites[3];
+		assertEquals(Bytecode.SEND_DIRECT, main.bytecode[foo]);
+		assertEquals("foo", literals[Bytecode.getShort(main.bytecode, foo+3)]);
+		assertEquals("A", literals[Bytecode.getShort(main.bytecode, foo+5)]);
+		assertEquals(1, Bytecode.getShort(main.bytecode, foo+7)); // after bar
+		assertEquals(Bytecode.SEND, main.bytecode[bar]);
+		assertEquals(4, main.sendSites.length);
+		assertEquals(1, main.maxStack);
+		assertTrue(Bytecode.disassemble("main", main.bytecode, literals, 0).matches("(?s).*send_direct +0, 'foo', 'A', 1.*"));
+	}
+
+	@Test public void testLinkWithDroppedMethods() {
+		STSymbolTable symtab = compile(program, true);
+		STCompiledBlock main = main(symtab);
+		int foo = main.sendSites[1]; // after new
+		Devirtualizer.link(symtab, m -> !m.getName().equals("bar"));
+		assertEquals(0, Bytecode.getShort(main.bytecode, foo+7));
+		Devirtualizer.link(symtab, m -> !m.getName().equals("foo"));
+		assertEquals(0xFFFF, Bytecode.getShort(main.bytecode, foo+7)); // -1
+	}
+
+	@Test public void testClassAndInstanceMethodsApart() {
+		String input =
+			"class A [ class make [ ^self new ] class create [ ^self new ] ]\n" +
+			"class B [ make [ ^1 ] ]\n" +
+			"B new make. A create.\n";
+		STSymbolTable symtab = compile(input, true);
+		Devirtualizer d = new Devirtualizer(symtab);
+		assertEquals("B", d.getSoleImplementor("make", false).getEnclosingScope().getName());
+		assertEquals("A", d.getSoleImplementor("make", true).getEnclosingScope().getName());
+		assertNull(d.getSoleImplementor("create", false));
+		STCompiledBlock main = main(symtab);
+		String[] literals = main.enclosingClass.stringTable.toArray();
+		int make = main.sendSites[1]; // after new
+		int create = main.sendSites[2];
+		assertEquals(Bytecode.SEND_DIRECT, main.bytecode[make]);
+		assertEquals("B", literals[Bytecode.getShort(main.bytecode, make+5)]);
+		assertEquals(0, Bytecode.getShort(main.bytecode, make+7));
+		assertEquals(Bytecode.SEND, main.bytecode[create]); // only a class method
+	}
+
+	@Test public void testOffByDefault() {
+		STCompiledBlock plain = main(compile(program, false));
+		assertEquals(Bytecode.SEND, plain.bytecode[plain.sendSites[1]]);
+		STCompiledBlock direct = main(compile(program, true));
+		assertEquals(plain.bytecode.length+4, direct.bytecode.length);
+	}
+
+	@Test public void testTailSendsStay() {
+		Compiler c = new Compiler();
+		c.genTailSends = true;
+		c.devirtualize = true;
+		STSymbolTable symtab = c.compile("t.st", "class A [ foo [ ^self bar ] bar [ ^self bar: 1 ] bar: x [ ^x ] ]\n");
+		assertEquals(Collections.emptyList(), c.errors);
+		STCompiledBlock foo = ((STMethod) ((STClass) symtab.GLOBALS.resolve("A")).resolveMethod("foo")).compiledBlock;
+		assertEquals(Bytecode.TAIL_SEND, foo.bytecode[foo.sendSites[0]]);
+	}
+
+	@Test public void testRewriteIsIdempotent() {
+		STSymbolTable symtab = compile(program, true);
+		STCompiledBlock main = main(symtab);
+		byte[] before = main.bytecode.clone();
+		assertArrayEquals(before, new Devirtualizer(symtab).rewrite(main.enclosingClass, main.bytecode));
+	}
+
+	static STSymbolTable compile(String input, boolean devirtualize) {
+		Compiler c = new Compiler();
+		c.devirtualize = devirtualize;
+		STSymbolTable symtab = c.compile("t.st", input);
+		assertEquals(Collections.emptyList(), c.errors);
+		return symtab;
+	}
+
+	static STCompiledBlock main(STSymbolTable symtab) {
+		STClass main = (STClass) symtab.GLOBALS.resolve("MainClass");
+		return ((STMethod) main.resolveMethod("main")).compiledBlock;
+	}
+}
@@ -0,0 +1,126 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.DocumentService;
+import smalltalk.compiler.symbols.STClass;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestDocumentService {
+	static final String input =
+		"class A [\n" +
+		"    |x|\n" +
+		"    foo [ x := 1. ^x ]\n" +
+		"]\n" +
+		"class B : A [\n" +
+		"    bar [ x := 2. ^self foo ]\n" +
+		"]\n" +
+		"class C [\n" +
+		"    baz [ ^B new ]\n" +
+		"]\n" +
+		"B new bar.\n";
+
+	List<String> published = new ArrayList<>();
+	DocumentService service = new DocumentService((uri, diagnostics) -> published.addAll(diagnostics));
+
+	@Test public void testOpen() {
+		DocumentService.Document doc = service.open("t.st", input);
+		assertEquals(3, doc.classes.size());
+		assertEquals(Collections.emptyList(), doc.getDiagnostics());
+		assertTrue(doc.symtab.GLOBALS.resolve("MainClass") instanceof STClass);
+	}
+
+	@Test public void testEditWithinMethod() {
+		DocumentService.Document doc = service.open("t.st", input);
+		STClass b = doc.classes.get(1).cls;
+		STClass c = doc.classes.get(2).cls;
+		edit("x := 1", "y := 1");
+		assertEquals(1, service.incrementalUpdates);
+		assertEquals(expectedErrors(doc.text), doc.getDiagnostics());
+		assertEquals(Arrays.asList("unknown variable y in global>>A>>foo"), published);
+		assertNotSame(doc.classes.get(0).cls, doc.symtab.GLOBALS.resolve("Object"));
+		assertSame(doc.classes.get(0).cls, doc.symtab.GLOBALS.resolve("A"));
+		assertSame(b, doc.symtab.GLOBALS.resolve("B"));
+		assertSame(c, doc.symtab.GLOBALS.resolve("C")); // untouched
+	}
+
+	@Test public void testEditFieldsResolvesSubclasses() {
+		DocumentService.Document doc = service.open("t.st", input);
+		edit("|x|", "|z|");
+		assertEquals(1, service.incrementalUpdates);
+		assertEquals(Arrays.asList("unknown variable x in global>>A>>foo", "unknown variable x in global>>B>>bar"),
+		             doc.getDiagnostics());
+		assertEquals(expectedErrors(doc.text), doc.getDiagnostics());
+		edit("|z|", "|x|");
+		assertEquals(Collections.emptyList(), doc.getDiagnostics());
+	}
+
+	@Test public void testOffsetsAndLinesAfterEdit() {
+		DocumentService.Document doc = service.open("t.st", input);
+		edit("foo [", "\n\n    foo [");
+		edit("baz [ ^B new ]", "baz [ ^B new ]\n    qux [ ^nil ]");
+		edit("class C", "\nclass C"); // at the start of the class
+		assertEquals(3, service.incrementalUpdates);
+		DocumentService.Document fresh = new DocumentService(null).open("u.st", doc.text);
+		for (int i = 0; i<fresh.classes.size(); i++) {
+			assertEquals(fresh.classes.get(i).start, doc.classes.get(i).start);
+			assertEquals(fresh.classes.get(i).stop, doc.classes.get(i).stop);
+		}
+		assertEquals(14, doc.classes.get(2).tree.getStop().getLine());
+		assertSame(doc.tree, doc.classes.get(2).tree.getParent());
+		assertEquals(doc.classes.get(2).tree, doc.tree.classDef(2));
+	}
+
+	@Test public void testRenameRedefinesAll() {
+		DocumentService.Document doc = service.open("t.st", input);
+		edit("class C", "class B");
+		assertEquals(Arrays.asList("redefinition of B"), doc.getDiagnostics());
+		edit("class B [", "class D [");
+		assertEquals(2, service.incrementalUpdates);
+		assertEquals(Collections.emptyList(), doc.getDiagnostics());
+		assertTrue(doc.symtab.GLOBALS.resolve("D") instanceof STClass);
+	}
+
+	@Test public void testSyntaxErrorFallsBackToFullParse() {
+		DocumentService.Document doc = service.open("t.st", input);
+		edit("^x ]\n]", "^x ]\n");
+		assertEquals(0, service.incrementalUpdates);
+		assertEquals(null, doc.tree);
+		assertTrue(doc.getDiagnostics().size()>0);
+		edit("^x ]\n", "^x ]\n]");
+		assertEquals(0, service.incrementalUpdates);
+		assertEquals(3, service.fullUpdates);
+		assertEquals(Collections.emptyList(), doc.getDiagnostics());
+		edit("new bar", "new bar: 1"); // main isn't reparsed on its own
+		assertEquals(0, service.incrementalUpdates);
+	}
+
+	@Test public void testEditThatAddsClassFallsBack() {
+		DocumentService.Document doc = service.open("t.st", input);
+		edit("^self foo ]", "^self foo ] ] class E [");
+		assertEquals(0, service.incrementalUpdates);
+		assertEquals(4, doc.classes.size());
+		assertEquals(Collections.emptyList(), doc.getDiagnostics());
+	}
+
+	void edit(String from, String to) {
+		DocumentService.Document doc = service.getDocument("t.st");
+		published.clear();
+		service.change(doc.uri, doc.text.indexOf(from), from.length(), to);
+	}
+
+	static List<String> expectedErrors(String text) {
+		Compiler compiler = new Compiler();
+		compiler.compile("t.st", text);
+		return compiler.errors;
+	}
+}
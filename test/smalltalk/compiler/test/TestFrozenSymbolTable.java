@@ -0,0 +1,102 @@
+package smalltalk.compiler.test;
+
+import org.antlr.symtab.FieldSymbol;
+import org.antlr.symtab.MethodSymbol;
+import org.antlr.symtab.Symbol;
+import org.antlr.symtab.VariableSymbol;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.symbols.FrozenBlock;
+import smalltalk.compiler.symbols.FrozenClass;
+import smalltalk.compiler.symbols.FrozenSymbolTable;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import javax.json.JsonObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestFrozenSymbolTable {
+	@Test public void testSameObjectCode() {
+		STSymbolTable symtab = STC.compile("image.st", false);
+		FrozenSymbolTable frozen = FrozenSymbolTable.freeze(symtab);
+		int n = 0;
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( !(s instanceof STClass) ) continue;
+			STClass cls = (STClass) s;
+			FrozenClass f = frozen.getClass(cls.getName());
+			assertSame(frozen.classes[n++], f);
+			assertEquals(cls.serialize(), f.serialize());
+		}
+		assertEquals(n, frozen.classes.length);
+		assertNull(frozen.getClass("NoSuchClass"));
+	}
+
+	@Test public void testLookups() {
+		STSymbolTable symtab = STC.compile("image.st", false);
+		FrozenSymbolTable frozen = FrozenSymbolTable.freeze(symtab);
+		for (Symbol s : symtab.GLOBALS.getSymbols()) {
+			if ( !(s instanceof STClass) ) continue;
+			STClass cls = (STClass) s;
+			FrozenClass f = frozen.getClass(cls.getName());
+			assertEquals(cls.getSuperClassName(), f.superClass>=0 ? frozen.classes[f.superClass].name : null);
+			for (FieldSymbol field : cls.getFields()) {
+				assertEquals(cls.getFieldIndex(field.getName()), frozen.getFieldIndex(f, field.getName()));
+			}
+			for (MethodSymbol m : cls.getMethods()) {
+				FrozenBlock fm = frozen.resolveMethod(f, m.getName());
+				assertEquals(((STMethod) m).compiledBlock.qualifiedName, fm.qualifiedName);
+			}
+			for (MethodSymbol m : cls.getDefinedMethods()) {
+				FrozenBlock fm = f.getDefinedMethod(m.getName());
+				for (Symbol local : m.getSymbols()) {
+					if ( local instanceof VariableSymbol ) {
+						assertEquals(((STMethod) m).getLocalIndex(local.getName()), fm.getLocalIndex(local.getName()));
+					}
+				}
+			}
+		}
+	}
+
+	@Test public void testBlocksAndInterning() {
+		String input =
+			"class T [\n" +
+			"    |a b|\n" +
+			"    foo: x [ |y| ^[:z | |w| x + z] value: y ]\n" +
+			"]\n";
+		FrozenSymbolTable t1 = FrozenSymbolTable.freeze(new Compiler().compile("T.st", input));
+		FrozenSymbolTable t2 = FrozenSymbolTable.freeze(new Compiler().compile("T.st", input));
+		FrozenClass c = t1.getClass("T");
+		assertEquals(-1, c.superClass); // Object isn't in this table
+		assertEquals(0, c.firstField);
+		assertEquals(1, t1.getFieldIndex(c, "b"));
+		FrozenBlock foo = c.getDefinedMethod("foo:");
+		assertEquals(1, foo.getLocalIndex("y"));
+		assertEquals(1, foo.blocks[0].getLocalIndex("w"));
+		assertEquals(-1, foo.blocks[0].getLocalIndex("x"));
+		assertSame(c.name, t2.getClass("T").name);
+		assertSame(foo.name, t2.getClass("T").getDefinedMethod("foo:").name);
+	}
+
+	@Test public void testCopiesArrays() {
+		Compiler c = new Compiler();
+		c.genLineTable = true;
+		STSymbolTable symtab = c.compile("T.st", "class T [ foo [ ^self bar ] ]");
+		FrozenSymbolTable frozen = FrozenSymbolTable.freeze(symtab);
+		STClass cls = (STClass) symtab.GLOBALS.resolve("T");
+		STCompiledBlock foo = cls.resolveMethod("foo").compiledBlock;
+		JsonObject before = frozen.getClass("T").serialize();
+		foo.bytecode[0] = 0;
+		foo.sendSites[0] = -1;
+		foo.lineTable[0] = 0;
+		cls.stringTable.add("added");
+		assertEquals(before, frozen.getClass("T").serialize());
+		assertNotSame(foo.bytecode, frozen.getClass("T").getDefinedMethod("foo").bytecode);
+	}
+}
@@ -0,0 +1,42 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.junit.Test;
+import smalltalk.compiler.SmalltalkLexer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLexer {
+	@Test public void testAssignWithoutSpaces() {
+		assertEquals("[ID:x@0:0, ASSIGN::=@0:1, NUMBER:1@0:3]", tokens("x:=1"));
+	}
+
+	@Test public void testAssignWithSpaces() {
+		assertEquals("[ID:x@0:0, ASSIGN::=@0:2, NUMBER:1@0:5]", tokens("x := 1"));
+	}
+
+	@Test public void testKeyword() {
+		assertEquals("[ID:a@0:0, KEYWORD:at:@0:2, NUMBER:1@0:6, KEYWORD:put:@0:8, NUMBER:2@0:13]",
+		             tokens("a at: 1 put: 2"));
+	}
+
+	@Test public void testAssignAfterKeywordSend() {
+		assertEquals("[KEYWORD:at:@0:0, ID:y@0:4, ID:x@1:0, ASSIGN::=@1:1, ID:y@1:3]",
+		             tokens("at: y\nx:=y"));
+	}
+
+	public static String tokens(String input) {
+		SmalltalkLexer lexer = new SmalltalkLexer(CharStreams.fromString(input));
+		List<String> tokens = new ArrayList<>();
+		for (Token t = lexer.nextToken(); t.getType()!=Token.EOF; t = lexer.nextToken()) {
+			if ( t.getChannel()!=Token.DEFAULT_CHANNEL ) continue;
+			tokens.add(SmalltalkLexer.VOCABULARY.getSymbolicName(t.getType())+":"+t.getText()+
+			           "@"+(t.getLine()-1)+":"+t.getCharPositionInLine());
+		}
+		return tokens.toString();
+	}
+}
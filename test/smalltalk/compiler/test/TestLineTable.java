@@ -0,0 +1,115 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.LineTable;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLineTable extends BaseTest {
+	@Test public void testBytecodeUntouched() {
+		String input =
+			"class T [\n" +
+			"    foo: x [\n" +
+			"        |y|\n" +
+			"        y := x + 1.\n" +
+			"        ^[:z | z * y] value: 3\n" +
+			"    ]\n" +
+			"]\n" +
+			"T new foo: 3.\n";
+		STCompiledBlock plain = method(input, "T", "foo:", false);
+		STCompiledBlock withTable = method(input, "T", "foo:", true);
+		assertNull(plain.lineTable);
+		assertTrue(Arrays.equals(plain.bytecode, withTable.bytecode));
+		assertTrue(Arrays.equals(plain.blocks[0].bytecode, withTable.blocks[0].bytecode));
+		assertEquals(plain.maxStack, withTable.maxStack);
+		assertTrue(Arrays.equals(plain.sendSites, withTable.sendSites));
+	}
+
+	@Test public void testNoFileLiteral() {
+		String input = "3 asString.";
+		STCompiledBlock main = method(input, "MainClass", "main", true);
+		assertEquals("[asString]", Arrays.toString(main.enclosingClass.stringTable.toArray()));
+	}
+
+	@Test public void testLocations() {
+		String input =
+			"|x|\n" +
+			"3 asString.\n" +
+			"x := 4 + 5.";
+		STCompiledBlock main = method(input, "MainClass", "main", true);
+		// 0000 push_int 3, 0005 send asString, 0010 pop, 0011 push_int 4, 0016 push_int 5,
+		// 0021 send +, 0026 store_local, 0031 pop...
+		// As with dbg instructions, a unary or binary send's location starts
+		// at its receiver, so + replaces the assignment's 3:0 at 0011.
+		assertEquals("2:2", location(main, 0));
+		assertEquals("2:2", location(main, 5));
+		assertEquals("3:7", location(main, 11));
+		assertEquals("3:7", location(main, 21));
+		assertEquals("3:11", location(main, 31)); // pop, at end of main
+	}
+
+	@Test public void testBlockEnd() {
+		String input = "[ 1 ] value.";
+		STCompiledBlock main = method(input, "MainClass", "main", true);
+		STCompiledBlock blk = main.blocks[0];
+		// 0000 push_int 1, 0005 block_return
+		assertEquals("1:4", location(blk, 5));
+	}
+
+	@Test public void testSharedSymbolTable() {
+		Compiler c = new Compiler();
+		c.genLineTable = true;
+		STSymbolTable symtab = c.compile("A.st", "class A [ foo [ ^1 ] ]");
+		STCompiledBlock foo = ((STClass)symtab.GLOBALS.resolve("A")).resolveMethod("foo").compiledBlock;
+		byte[] bytecode = foo.bytecode.clone();
+		byte[] lineTable = foo.lineTable.clone();
+		c = new Compiler(symtab);
+		c.genLineTable = true;
+		c.compile("B.st", "class B [ bar [ ^2 ] ]");
+		// A was compiled already; a second pass would find no dbg to strip
+		assertTrue(Arrays.equals(bytecode, foo.bytecode));
+		assertTrue(Arrays.equals(lineTable, foo.lineTable));
+		assertEquals("1:16", location(foo, 5)); // return at ^
+	}
+
+	@Test public void testEncodeDecode() {
+		LineTable table = new LineTable();
+		table.add(0, 10, 4);
+		table.add(7, 9, 200);
+		table.add(7, 12, 1); // replaces previous entry for address 7
+		table.add(300, 12, 0);
+		byte[] bytes = table.toBytes();
+		assertEquals("0000: 10:4\n0007: 12:1\n0300: 12:0\n", LineTable.toString(bytes));
+		assertEquals(Bytecode.combineLineCharPos(12, 1), LineTable.lookup(bytes, 299));
+	}
+
+	@Test public void testWideColumns() {
+		StringBuilder pad = new StringBuilder();
+		for (int i = 0; i<300; i++) pad.append(' ');
+		String input = "class T [ foo ["+pad+"^self bar ] bar [ ^1 ] ]";
+		STCompiledBlock foo = method(input, "T", "foo", true);
+		assertEquals("1:"+input.indexOf("bar"), location(foo, 0)); // 321, not 321&0xFF
+	}
+
+	public static String location(STCompiledBlock blk, int pc) {
+		int[] location = LineTable.lookupLocation(blk.lineTable, pc);
+		return location[0]+":"+location[1];
+	}
+
+	public STCompiledBlock method(String input, String className, String selector, boolean genLineTable) {
+		Compiler c = new Compiler();
+		c.genLineTable = genLineTable;
+		STSymbolTable symtab = c.compile("T.st", input);
+		STClass cl = (STClass)symtab.GLOBALS.resolve(className);
+		return cl.resolveMethod(selector).compiledBlock;
+	}
+}
@@ -0,0 +1,53 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMaxStack extends BaseTest {
+	@Test public void testEmptyMain() {
+		assertEquals(2, compileMain("|x|").maxStack); // nil, self
+	}
+
+	@Test public void testAssign() {
+		assertEquals(1, compileMain("|x| x := 1.").maxStack);
+	}
+
+	@Test public void testKeywordSend() {
+		// receiver and two args: 1, 5, block
+		STCompiledBlock main = compileMain("1 to: 5 do: [:i | Transcript show: i].");
+		assertEquals(3, main.maxStack);
+		assertEquals(2, main.blocks[0].maxStack);
+	}
+
+	@Test public void testNestedBinaryOperators() {
+		// 1 + (2 * (3 - 4)) needs all four operands on the stack at once
+		assertEquals(4, compileMain("1 + (2 * (3 - 4)).").maxStack);
+	}
+
+	@Test public void testLeftAssociativeOperators() {
+		assertEquals(2, compileMain("1 + 2 + 3 + 4.").maxStack);
+	}
+
+	@Test public void testDeadCodeAfterReturnIgnored() {
+		String input =
+			"class T [\n" +
+			"    foo [ ^1 ]\n" +
+			"]\n";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		STClass T = (STClass)symtab.GLOBALS.resolve("T");
+		assertEquals(1, T.resolveMethod("foo").compiledBlock.maxStack);
+	}
+
+	public STCompiledBlock compileMain(String input) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("Main.st", input);
+		STClass mainClass = (STClass)symtab.GLOBALS.resolve("MainClass");
+		return mainClass.resolveMethod("main").compiledBlock;
+	}
+}
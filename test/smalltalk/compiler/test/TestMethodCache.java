@@ -0,0 +1,68 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.runtime.MethodCache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestMethodCache {
+	@Test public void testMissThenHit() {
+		MethodCache<String> cache = new MethodCache<>(16);
+		int[] resolves = new int[1];
+		MethodCache.Resolver<String> resolver = (c, s) -> { resolves[0]++; return c+">>"+s; };
+		assertEquals("3>>7", cache.lookup(3, 7, resolver));
+		assertEquals("3>>7", cache.lookup(3, 7, resolver));
+		assertEquals(1, resolves[0]);
+		assertEquals(2, cache.getLookups());
+		assertEquals(1, cache.getHits());
+		assertEquals(0.5, cache.getHitRate(), 0.0);
+	}
+
+	@Test public void testCollidingKeysAllCached() {
+		MethodCache<String> cache = new MethodCache<>(4);
+		for (int c=0; c<4; c++) {
+			cache.put(c, 1, "m"+c);
+		}
+		for (int c=0; c<4; c++) {
+			assertEquals("m"+c, cache.get(c, 1));
+		}
+	}
+
+	@Test public void testFullProbeOverwrites() {
+		MethodCache<String> cache = new MethodCache<>(4);
+		for (int c=0; c<5; c++) {
+			cache.put(c, 1, "m"+c);
+		}
+		int found = 0;
+		for (int c=0; c<5; c++) {
+			if ( cache.get(c, 1)!=null ) found++;
+		}
+		assertEquals(4, found);
+		assertEquals("m4", cache.get(4, 1));
+	}
+
+	@Test public void testInvalidateSelector() {
+		MethodCache<String> cache = new MethodCache<>(64);
+		cache.put(1, 10, "a");
+		cache.put(2, 10, "b");
+		cache.put(1, 11, "c");
+		cache.invalidateSelector(10);
+		assertNull(cache.get(1, 10));
+		assertNull(cache.get(2, 10));
+		assertEquals("c", cache.get(1, 11));
+		assertEquals(1, cache.getInvalidations());
+	}
+
+	@Test public void testFlush() {
+		MethodCache<String> cache = new MethodCache<>(64);
+		cache.put(1, 10, "a");
+		cache.flush();
+		assertNull(cache.get(1, 10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSizeMustBePowerOfTwo() {
+		new MethodCache<String>(100);
+	}
+}
@@ -0,0 +1,47 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.runtime.OperandStack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestOperandStack {
+	@Test public void testIntsStayUnboxed() {
+		int[] boxed = new int[1];
+		OperandStack stack = new OperandStack(4, v -> { boxed[0]++; return "int:"+v; });
+		stack.pushInt(3);
+		stack.pushInt(4);
+		assertTrue(stack.topTwoAreInts());
+		long y = stack.popInt();
+		long x = stack.popInt();
+		stack.pushInt(x+y);
+		assertEquals(7, stack.peekInt(0));
+		assertEquals(0, boxed[0]);
+		assertEquals("[7]", stack.toString());
+	}
+
+	@Test public void testIntsBoxedOnlyWhenPoppedAsObject() {
+		int[] boxed = new int[1];
+		OperandStack stack = new OperandStack(4, v -> { boxed[0]++; return "int:"+v; });
+		stack.push("Transcript");
+		stack.pushInt(99);
+		assertFalse(stack.isInt(1));
+		assertTrue(stack.isInt(0));
+		assertEquals("int:99", stack.pop());
+		assertEquals(1, boxed[0]);
+		assertEquals("Transcript", stack.pop());
+		assertTrue(stack.isEmpty());
+	}
+
+	@Test public void testDrop() {
+		OperandStack stack = new OperandStack(4, v -> v);
+		stack.push("a");
+		stack.pushInt(1);
+		stack.push("b");
+		stack.drop(2);
+		assertEquals(1, stack.size());
+		assertEquals("a", stack.top());
+	}
+}
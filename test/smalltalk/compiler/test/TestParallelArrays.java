@@ -0,0 +1,79 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.runtime.ParallelArrays;
+import smalltalk.compiler.symbols.STBlock;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestParallelArrays {
+	static final int N = 10_000;
+	static final ParallelArrays parallel = new ParallelArrays(ForkJoinPool.commonPool(), 100);
+
+	static Object[] ints(int n) {
+		Object[] a = new Object[n];
+		for (int i = 0; i<n; i++) a[i] = i+1;
+		return a;
+	}
+
+	@Test public void testOnlyCleanBlocksInParallel() {
+		assertTrue(parallel.shouldParallelize(STBlock.Kind.CLEAN, N));
+		assertFalse(parallel.shouldParallelize(STBlock.Kind.COPYING, N));
+		assertFalse(parallel.shouldParallelize(STBlock.Kind.FULL, N));
+		assertFalse(parallel.shouldParallelize(STBlock.Kind.CLEAN, 100));
+	}
+
+	@Test public void testFullBlockStaysOnCallingThread() {
+		Thread caller = Thread.currentThread();
+		Set<Thread> threads = new HashSet<>();
+		int[] count = {0}; // unsynchronized, as a full block's outer state would be
+		parallel.forEach(ints(N), N, STBlock.Kind.FULL, v -> {
+			threads.add(Thread.currentThread());
+			count[0]++;
+		});
+		assertEquals(Collections.singleton(caller), threads);
+		assertEquals(N, count[0]);
+		Object[] odds = parallel.select(ints(N), N, STBlock.Kind.COPYING, v -> {
+			threads.add(Thread.currentThread());
+			return (Integer)v % 2 == 1;
+		});
+		assertEquals(Collections.singleton(caller), threads);
+		assertEquals(N/2, odds.length);
+	}
+
+	@Test public void testDoVisitsEachOnce() {
+		AtomicInteger sum = new AtomicInteger();
+		parallel.forEach(ints(N+5), N, STBlock.Kind.CLEAN, v -> sum.addAndGet((Integer)v));
+		assertEquals(N*(N+1)/2, sum.get());
+	}
+
+	@Test public void testCollectKeepsOrder() {
+		Object[] squares = parallel.collect(ints(N), N, STBlock.Kind.CLEAN, v -> (Integer)v * (Integer)v);
+		assertEquals(N, squares.length);
+		for (int i = 0; i<N; i++) {
+			assertEquals((i+1)*(i+1), squares[i]);
+		}
+	}
+
+	@Test public void testInject() {
+		Object sum = parallel.inject(ints(N), N, 7, STBlock.Kind.CLEAN, (a, b) -> (Integer)a + (Integer)b);
+		assertEquals(7 + N*(N+1)/2, sum);
+		assertEquals(7, parallel.inject(ints(0), 0, 7, STBlock.Kind.CLEAN, (a, b) -> (Integer)a + (Integer)b));
+	}
+
+	@Test public void testSelectKeepsOrder() {
+		Object[] evens = parallel.select(ints(N), N, STBlock.Kind.CLEAN, v -> (Integer)v % 2 == 0);
+		Object[] expected = new Object[N/2];
+		for (int i = 0; i<expected.length; i++) expected[i] = 2*(i+1);
+		assertArrayEquals(expected, evens);
+	}
+}
@@ -0,0 +1,50 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.junit.Test;
+import smalltalk.compiler.SmalltalkLexer;
+import smalltalk.compiler.SmalltalkParser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestParseDecisions {
+	/** Long binary expressions as keyword receivers and arguments */
+	static String largeInput() {
+		StringBuilder buf = new StringBuilder("|x|\n");
+		for (int i = 0; i<100; i++) {
+			buf.append("x := 1");
+			for (int j = 0; j<50; j++) {
+				buf.append(" + ").append(j).append(" foo");
+			}
+			buf.append(" at: 2 + 3 put: 4 - -5 >= 6.\n");
+			buf.append("x printString.\n");
+		}
+		return buf.toString();
+	}
+
+	@Test public void testLookaheadIndependentOfExpressionSize() {
+		SmalltalkParser parser = new SmalltalkParser(
+			new CommonTokenStream(new SmalltalkLexer(CharStreams.fromString(largeInput()))));
+		parser.setProfile(true);
+		parser.file();
+		assertEquals(0, parser.getNumberOfSyntaxErrors());
+		for (DecisionInfo d : parser.getParseInfo().getDecisionInfo()) {
+			int rule = parser.getATN().decisionToState.get(d.decision).ruleIndex;
+			String where = SmalltalkParser.ruleNames[rule]+" decision "+d.decision+": "+d;
+			assertEquals(where, 0, d.LL_Fallback);
+			if ( rule==SmalltalkParser.RULE_keywordExpression ||
+				 rule==SmalltalkParser.RULE_binaryExpression ||
+				 rule==SmalltalkParser.RULE_bop )
+			{
+				assertTrue(where, d.SLL_MaxLook<=2);
+			}
+			else {
+				// e.g., stat must see ID ':=' and body looks past '.'
+				assertTrue(where, d.SLL_MaxLook<=5);
+			}
+		}
+	}
+}
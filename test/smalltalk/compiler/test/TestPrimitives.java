@@ -0,0 +1,74 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.misc.Utils;
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.Primitive;
+import smalltalk.compiler.runtime.PrimitiveTable;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.IntBinaryOperator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestPrimitives {
+	@Test public void testIDsAreDense() {
+		for (int id = 0; id<Primitive.count(); id++) {
+			assertEquals(id, Primitive.fromID(id).id);
+		}
+		assertNull(Primitive.fromID(Primitive.count()));
+		assertEquals(Primitive.NONE, Primitive.idOf("Foo_BAR"));
+	}
+
+	@Test public void testPrimitiveIDInCompiledMethod() {
+		String input =
+			"class String : Object [\n" +
+			"   , other <primitive:#String_CAT>\n" +
+			"   size [ ^0 ]\n" +
+			"]\n";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("String.st", input);
+		assertEquals(Collections.emptyList(), c.errors);
+		STClass s = (STClass)symtab.GLOBALS.resolve("String");
+		STCompiledBlock cat = s.resolveMethod(",").compiledBlock;
+		assertEquals(Primitive.String_CAT.id, cat.primitiveID);
+		assertEquals(Primitive.String_CAT.id, cat.serialize().getInt("primitiveID"));
+		assertEquals(Primitive.NONE, s.resolveMethod("size").compiledBlock.primitiveID);
+	}
+
+	@Test public void testUnknownPrimitive() {
+		String input =
+			"class String : Object [\n" +
+			"   reverse <primitive:#String_REVERSE>\n" +
+			"]\n";
+		Compiler c = new Compiler();
+		c.compile("String.st", input);
+		assertEquals(Arrays.asList("unknown primitive String_REVERSE for String>>reverse"), c.errors);
+	}
+
+	@Test public void testImageUsesOnlyKnownPrimitives() throws Exception {
+		URL image = Thread.currentThread().getContextClassLoader().getResource("image.st");
+		Compiler c = new Compiler();
+		c.compile("image.st", new String(Utils.readFile(image.getFile())));
+		assertEquals(Collections.emptyList(), c.errors);
+	}
+
+	@Test public void testTable() {
+		PrimitiveTable<IntBinaryOperator> table = new PrimitiveTable<>();
+		IntBinaryOperator add = (a, b) -> a + b;
+		table.register(Primitive.Integer_ADD, add);
+		assertSame(add, table.get(Primitive.Integer_ADD.id));
+		assertNull(table.get(Primitive.Integer_SUB));
+		assertNull(table.get(Primitive.NONE));
+		assertEquals(Primitive.count()-1, table.getMissing().size());
+		assertTrue(!table.getMissing().contains(Primitive.Integer_ADD));
+	}
+}
@@ -0,0 +1,86 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.runtime.ProcessScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestProcessScheduler {
+	@Test public void testManyProcessesShareQueue() throws Exception {
+		ProcessScheduler scheduler = new ProcessScheduler();
+		LinkedBlockingQueue<Integer> queue = new LinkedBlockingQueue<>();
+		Semaphore go = new Semaphore(0);
+		int n = 50;
+		List<Thread> processes = new ArrayList<>();
+		for (int i = 0; i<n; i++) {
+			int id = i;
+			processes.add(scheduler.fork(() -> {
+				try {
+					go.acquire();   // all processes block at once
+					queue.put(id);
+				}
+				catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+				}
+			}));
+		}
+		go.release(n);
+		int sum = 0;
+		for (int i = 0; i<n; i++) {
+			sum += queue.take();
+		}
+		for (Thread p : processes) {
+			ProcessScheduler.join(p);
+			assertTrue(ProcessScheduler.isTerminated(p));
+		}
+		assertEquals(n*(n-1)/2, sum);
+		assertEquals(n, scheduler.getNumberForked());
+		assertEquals(0, scheduler.getNumberLive());
+	}
+
+	@Test public void testTerminateInterruptsBlockedProcess() throws Exception {
+		ProcessScheduler scheduler = new ProcessScheduler();
+		Thread p = scheduler.fork(() -> {
+			try {
+				new Semaphore(0).acquire();
+			}
+			catch (InterruptedException ie) {
+				// unwind
+			}
+		});
+		ProcessScheduler.terminate(p);
+		ProcessScheduler.join(p);
+		assertTrue(ProcessScheduler.isTerminated(p));
+	}
+
+	@Test public void testVirtualThreadsWhenAvailable() throws Exception {
+		ProcessScheduler scheduler = new ProcessScheduler();
+		Semaphore done = new Semaphore(0);
+		Thread p = scheduler.fork(done::release);
+		done.acquire();
+		ProcessScheduler.join(p);
+		boolean jvmHasVirtualThreads;
+		try {
+			Thread.class.getMethod("ofVirtual").invoke(null); // fails if only a preview
+			jvmHasVirtualThreads = true;
+		}
+		catch (ReflectiveOperationException e) {
+			jvmHasVirtualThreads = false;
+		}
+		if ( jvmHasVirtualThreads ) {
+			assertTrue((Boolean)Thread.class.getMethod("isVirtual").invoke(p));
+			assertTrue(scheduler.isVirtual());
+		}
+		else {
+			assertTrue(p.isDaemon());
+			assertFalse(scheduler.isVirtual());
+		}
+	}
+}
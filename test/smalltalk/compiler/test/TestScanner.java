@@ -0,0 +1,146 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.junit.Test;
+import smalltalk.compiler.SmalltalkLexer;
+import smalltalk.compiler.SmalltalkScanner;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Check SmalltalkScanner against the generated SmalltalkLexer */
+public class TestScanner {
+	@Test public void testSameTokensOnCorpus() throws Exception {
+		URL samples = Thread.currentThread().getContextClassLoader().getResource("image.st");
+		Path dir = new File(samples.toURI()).toPath().getParent();
+		List<String> corpus = LexerBenchmark.load(dir);
+		assertTrue(corpus.size()>10);
+		for (String input : corpus) {
+			assertSameTokens(input);
+		}
+	}
+
+	@Test public void testEdgeCases() {
+		String[] inputs = {
+			"",
+			"x:=1",
+			"x := -1 - 2. y:=3-4",
+			"3.14 1. 2.x",
+			"a at: 1 put: $b",
+			"<primitive:#Integer_ADD> primitive:=3",
+			"self selfish self: classes class super nil true false",
+			"'it''s' \"a \"\"quoted\"\" comment\" 'multi\nline'",
+			"#foo #_bar12",
+			"^[:x :y | x <= y ~= (x >= y) -> {x. y}]",
+			"a \\\\ b // c ~~ d @ e % f & g ? h , i",
+			"\n\n  \t x\n y"
+		};
+		for (String input : inputs) {
+			assertSameTokens(input);
+		}
+	}
+
+	@Test public void testMalformedInput() {
+		String[] inputs = {
+			"a := #(1 2)",
+			"#",
+			"x # y",
+			"#1",
+			"$",
+			"$ x",
+			"a $@ b",
+			"$\nx",
+			"\"unterminated\ncomment",
+			"'unterminated\tstring",
+			"'it'''",
+			"\"a\"\"\"",
+			"x ! y ;\n`z",
+			"\r\nx",
+			"3.",
+			"x: := y"
+		};
+		for (String input : inputs) {
+			assertSameTokens(input);
+		}
+	}
+
+	/** SmalltalkLexer throws for these; see SmalltalkScanner */
+	@Test public void testUnterminatedAfterStart() {
+		List<String> errors = new ArrayList<>();
+		SmalltalkScanner scanner = new SmalltalkScanner(CharStreams.fromString("x \"a\nb 'c"));
+		scanner.removeErrorListeners();
+		scanner.addErrorListener(errorCollector(errors));
+		assertEquals("[ID:x@1:0[0..0], EOF:<EOF>@2:4]", tokens(scanner).toString());
+		assertEquals("[1:2 token recognition error at: '\"a\\nb 'c']", errors.toString());
+
+		errors.clear();
+		scanner = new SmalltalkScanner(CharStreams.fromString("x 'it''s"));
+		scanner.removeErrorListeners();
+		scanner.addErrorListener(errorCollector(errors));
+		assertEquals("[ID:x@1:0[0..0], STRING:'it'@1:2[2..5], EOF:<EOF>@1:8]", tokens(scanner).toString());
+		assertEquals("[1:6 token recognition error at: ''s']", errors.toString());
+	}
+
+	@Test public void testBadCharacter() {
+		SmalltalkScanner scanner = new SmalltalkScanner(CharStreams.fromString("x ! y"));
+		scanner.removeErrorListeners();
+		assertEquals("[ID:x@1:0[0..0], ID:y@1:4[4..4], EOF:<EOF>@1:5]", tokens(scanner).toString());
+		assertEquals(1, scanner.getNumberOfErrors());
+	}
+
+	/** Check that both produce the same tokens and errors for input */
+	public static void assertSameTokens(String input) {
+		List<String> expectedErrors = new ArrayList<>();
+		SmalltalkLexer lexer = new SmalltalkLexer(CharStreams.fromString(input));
+		lexer.removeErrorListeners();
+		lexer.addErrorListener(errorCollector(expectedErrors));
+		List<String> expected = tokens(lexer);
+
+		List<String> actualErrors = new ArrayList<>();
+		SmalltalkScanner scanner = new SmalltalkScanner(CharStreams.fromString(input));
+		scanner.removeErrorListeners();
+		scanner.addErrorListener(errorCollector(actualErrors));
+		List<String> actual = tokens(scanner);
+
+		assertEquals(input, expected, actual);
+		assertEquals(input, expectedErrors, actualErrors);
+	}
+
+	static ANTLRErrorListener errorCollector(List<String> errors) {
+		return new BaseErrorListener() {
+			@Override
+			public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol,
+			                        int line, int charPositionInLine, String msg,
+			                        RecognitionException e)
+			{
+				errors.add(line+":"+charPositionInLine+" "+msg);
+			}
+		};
+	}
+
+	/** Return the default-channel tokens with their types, text and positions */
+	public static List<String> tokens(TokenSource source) {
+		List<String> tokens = new ArrayList<>();
+		Token t;
+		do {
+			t = source.nextToken();
+			if ( t.getChannel()!=Token.DEFAULT_CHANNEL ) continue;
+			String type = t.getType()==Token.EOF ? "EOF" : SmalltalkLexer.VOCABULARY.getDisplayName(t.getType());
+			String where = t.getStartIndex()>=0 && t.getType()!=Token.EOF ? "["+t.getStartIndex()+".."+t.getStopIndex()+"]" : "";
+			tokens.add(type+":"+t.getText()+"@"+t.getLine()+":"+t.getCharPositionInLine()+where);
+		} while ( t.getType()!=Token.EOF );
+		return tokens;
+	}
+}
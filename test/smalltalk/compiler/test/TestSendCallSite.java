@@ -0,0 +1,116 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.runtime.SendCallSite;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestSendCallSite {
+	/** Treats Java classes as Smalltalk classes and counts lookups */
+	static class JavaLinker extends SendCallSite.Linker {
+		int lookups = 0;
+		String suffix = "";
+
+		@Override
+		public Object classOf(Object receiver) { return receiver.getClass(); }
+
+		@Override
+		public MethodHandle lookup(Object cls, String selector, MethodType type) {
+			lookups++;
+			if ( !selector.equals("printString") ) return null;
+			MethodHandle toString = MethodHandles.insertArguments(PRINT, 1, cls.toString()+suffix);
+			return toString.asType(type);
+		}
+
+		@Override
+		public Object doesNotUnderstand(String selector, Object[] args) {
+			return "dnu "+selector;
+		}
+	}
+
+	static final MethodHandle PRINT;
+	static {
+		try {
+			PRINT = MethodHandles.lookup().findStatic(TestSendCallSite.class, "print",
+				MethodType.methodType(String.class, Object.class, String.class));
+		}
+		catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	static String print(Object receiver, String cls) { return receiver+"@"+cls; }
+
+	static final MethodType UNARY = MethodType.methodType(Object.class, Object.class);
+
+	@Test public void testMonomorphicSiteLinksOnce() throws Throwable {
+		JavaLinker linker = new JavaLinker();
+		SendCallSite site = new SendCallSite(linker, "printString", UNARY);
+		MethodHandle send = site.dynamicInvoker();
+		assertEquals("1@class java.lang.Integer", (Object)send.invokeExact((Object)1));
+		assertEquals("2@class java.lang.Integer", (Object)send.invokeExact((Object)2));
+		assertEquals(1, linker.lookups);
+		assertEquals(1, site.getChainLength());
+	}
+
+	@Test public void testPolymorphicThenMegamorphic() throws Throwable {
+		JavaLinker linker = new JavaLinker();
+		SendCallSite site = new SendCallSite(linker, "printString", UNARY);
+		MethodHandle send = site.dynamicInvoker();
+		Object[] receivers = {1, "a", 'c', 1.0f, 2L};
+		for (Object r : receivers) {
+			Object ignore = (Object)send.invokeExact(r);
+		}
+		assertEquals(SendCallSite.MAX_CHAIN, site.getChainLength());
+		assertTrue(site.isMegamorphic());
+		assertEquals("x@class java.lang.String", (Object)send.invokeExact((Object)"x"));
+	}
+
+	@Test public void testInvalidateRelinks() throws Throwable {
+		JavaLinker linker = new JavaLinker();
+		SendCallSite site = new SendCallSite(linker, "printString", UNARY);
+		MethodHandle send = site.dynamicInvoker();
+		Object ignore = (Object)send.invokeExact((Object)1);
+		linker.suffix = "'"; // "redefine" the method
+		linker.invalidate();
+		assertEquals("1@class java.lang.Integer'", (Object)send.invokeExact((Object)1));
+		assertEquals(2, linker.lookups);
+		assertEquals(1, site.getChainLength());
+		assertFalse(site.isMegamorphic());
+	}
+
+	@Test public void testRedefinedDuringLookup() throws Throwable {
+		JavaLinker linker = new JavaLinker() {
+			@Override
+			public MethodHandle lookup(Object cls, String selector, MethodType type) {
+				MethodHandle h = super.lookup(cls, selector, type);
+				if ( lookups==1 ) { // another thread redefines the method meanwhile
+					suffix = "'";
+					invalidate();
+				}
+				return h;
+			}
+		};
+		SendCallSite site = new SendCallSite(linker, "printString", UNARY);
+		MethodHandle send = site.dynamicInvoker();
+		assertEquals("1@class java.lang.Integer", (Object)send.invokeExact((Object)1));
+		assertEquals(0, site.getChainLength()); // stale handle not linked
+		assertEquals("2@class java.lang.Integer'", (Object)send.invokeExact((Object)2));
+		assertEquals("3@class java.lang.Integer'", (Object)send.invokeExact((Object)3));
+		assertEquals(2, linker.lookups);
+		assertEquals(1, site.getChainLength());
+	}
+
+	@Test public void testDoesNotUnderstand() throws Throwable {
+		JavaLinker linker = new JavaLinker();
+		SendCallSite site = new SendCallSite(linker, "foo", UNARY);
+		assertEquals("dnu foo", (Object)site.dynamicInvoker().invokeExact((Object)1));
+		assertEquals(0, site.getChainLength());
+	}
+}
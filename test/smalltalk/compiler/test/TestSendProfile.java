@@ -0,0 +1,141 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.SendProfile;
+import smalltalk.compiler.runtime.SendProfiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STMethod;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestSendProfile {
+	static final String input =
+		"class T [\n" +
+		"    cold [ ^1 ]\n" +
+		"    hot: x [ ^x printString ]\n" +
+		"]\n";
+
+	@Test public void testNoProfile() {
+		STClass T = compile(null);
+		STCompiledBlock hot = T.resolveMethod("hot:").compiledBlock;
+		assertNull(hot.siteReceivers);
+		assertEquals(Arrays.asList("cold", "hot:"), methodNames(T));
+	}
+
+	@Test public void testProfileRoundTrip() throws Exception {
+		int pc = compile(null).resolveMethod("hot:").compiledBlock.sendSites[0];
+		SendProfiler profiler = new SendProfiler();
+		SendProfiler.Counts counts = profiler.countsFor("T", "T>>hot:");
+		for (int i = 0; i<10; i++) {
+			counts.invoked();
+			counts.sent(pc, i<7 ? "Integer" : "Float");
+		}
+		profiler.countsFor("T", "T>>cold").invoked();
+		Path file = Files.createTempFile("profile", ".json");
+		try {
+			profiler.write(file);
+			SendProfile profile = SendProfile.load(file);
+			assertEquals(10, profile.getInvocations("T", "T>>hot:"));
+			assertEquals(10, profile.getSite("T", "T>>hot:", pc).count);
+			assertEquals(Arrays.asList("Integer", "Float"), profile.getReceivers("T", "T>>hot:", pc));
+			assertEquals(Collections.emptyList(), profile.getReceivers("T", "T>>hot:", pc+1));
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test public void testProfileGuidesObjectFile() {
+		int pc = compile(null).resolveMethod("hot:").compiledBlock.sendSites[0];
+		SendProfiler profiler = new SendProfiler();
+		SendProfiler.Counts counts = profiler.countsFor("T", "T>>hot:");
+		counts.invoked();
+		counts.invoked();
+		counts.sent(pc, "Integer");
+		profiler.countsFor("T", "T>>cold").invoked();
+
+		STClass T = compile(SendProfile.fromJson(profiler.toJson()));
+		assertEquals(Arrays.asList("hot:", "cold"), methodNames(T));
+		JsonObject hot = T.serialize().getJsonArray("methods").getJsonObject(0);
+		assertEquals(2, hot.getInt("invocations"));
+		JsonArray caches = hot.getJsonArray("inlineCaches");
+		assertEquals(1, caches.size());
+		assertEquals("monomorphic", caches.getJsonObject(0).getString("shape"));
+		assertEquals("Integer", caches.getJsonObject(0).getJsonArray("receivers").getString(0));
+	}
+
+	@Test public void testMegamorphicSite() {
+		int pc = compile(null).resolveMethod("hot:").compiledBlock.sendSites[0];
+		SendProfiler profiler = new SendProfiler();
+		SendProfiler.Counts counts = profiler.countsFor("T", "T>>hot:");
+		for (String cls : new String[] {"A", "B", "C", "D", "E"}) {
+			counts.sent(pc, cls);
+		}
+		STClass T = compile(SendProfile.fromJson(profiler.toJson()));
+		JsonObject cache = T.resolveMethod("hot:").compiledBlock.serialize()
+			.getJsonArray("inlineCaches").getJsonObject(0);
+		assertEquals("megamorphic", cache.getString("shape"));
+		assertEquals(0, cache.getJsonArray("receivers").size());
+	}
+
+	@Test public void testSameBlockNameInTwoClasses() {
+		String input =
+			"class A [ each: x [ ^[:y | y foo] value: x ] ]\n" +
+			"class B [ each: x [ ^[:y | y foo] value: x ] ]\n";
+		STCompiledBlock blk = block(compile(input, null), "A");
+		assertEquals(block(compile(input, null), "B").qualifiedName, blk.qualifiedName);
+		int pc = blk.sendSites[0];
+		SendProfiler profiler = new SendProfiler();
+		SendProfiler.Counts a = profiler.countsFor("A", blk.qualifiedName);
+		a.invoked();
+		a.sent(pc, "Integer");
+		SendProfiler.Counts b = profiler.countsFor("B", blk.qualifiedName);
+		for (int i = 0; i<3; i++) {
+			b.invoked();
+			b.sent(pc, "Float");
+		}
+		STSymbolTable symtab = compile(input, SendProfile.fromJson(profiler.toJson()));
+		assertEquals(1, block(symtab, "A").invocations);
+		assertEquals(Collections.singletonList(Collections.singletonList("Integer")), block(symtab, "A").siteReceivers);
+		assertEquals(3, block(symtab, "B").invocations);
+		assertEquals(Collections.singletonList(Collections.singletonList("Float")), block(symtab, "B").siteReceivers);
+	}
+
+	static STSymbolTable compile(String input, SendProfile profile) {
+		Compiler c = new Compiler();
+		c.profile = profile;
+		return c.compile("T.st", input);
+	}
+
+	static STCompiledBlock block(STSymbolTable symtab, String className) {
+		return ((STClass)symtab.GLOBALS.resolve(className)).resolveMethod("each:").compiledBlock.blocks[0];
+	}
+
+	public STClass compile(SendProfile profile) {
+		Compiler c = new Compiler();
+		c.profile = profile;
+		STSymbolTable symtab = c.compile("T.st", input);
+		return (STClass)symtab.GLOBALS.resolve("T");
+	}
+
+	public List<String> methodNames(STClass cls) {
+		List<String> names = new ArrayList<>();
+		for (STMethod m : cls.getMethodsInSerializeOrder()) {
+			names.add(m.getName());
+		}
+		return names;
+	}
+}
@@ -0,0 +1,79 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.runtime.InlineCache;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestSendSites extends BaseTest {
+	@Test public void testNoSends() {
+		String input = "|x| x := 1.";
+		STCompiledBlock main = compileMain(input);
+		assertEquals("[]", Arrays.toString(main.sendSites));
+	}
+
+	@Test public void testSendsInMain() {
+		String input = "Transcript show: 3 + 4 asString.";
+		STCompiledBlock main = compileMain(input);
+		// 0000 push_global, 0003 push_int, 0008 push_int, 0013 send asString, 0018 send +, 0023 send show:
+		assertEquals("[13, 18, 23]", Arrays.toString(main.sendSites));
+	}
+
+	@Test public void testSendsInNestedBlock() {
+		String input = "1 to: 5 do: [:i | Transcript show: i].";
+		STCompiledBlock main = compileMain(input);
+		assertEquals("[13]", Arrays.toString(main.sendSites));
+		assertEquals("[8]", Arrays.toString(main.blocks[0].sendSites));
+	}
+
+	@Test public void testSuperSend() {
+		String input =
+			"class T [\n" +
+			"    foo [ ^super foo ]\n" +
+			"]\n";
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		STClass T = (STClass)symtab.GLOBALS.resolve("T");
+		assertEquals("[1]", Arrays.toString(T.resolveMethod("foo").compiledBlock.sendSites));
+	}
+
+	@Test public void testInlineCacheGoesPolymorphicThenMegamorphic() {
+		InlineCache<String,String> cache = new InlineCache<>();
+		assertEquals(InlineCache.State.EMPTY, cache.getState());
+		cache.lookup("Integer", c -> c+">>foo");
+		cache.lookup("Integer", c -> c+">>foo");
+		assertEquals(InlineCache.State.MONOMORPHIC, cache.getState());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		cache.lookup("Float", c -> c+">>foo");
+		cache.lookup("String", c -> c+">>foo");
+		cache.lookup("Array", c -> c+">>foo");
+		assertEquals(InlineCache.State.POLYMORPHIC, cache.getState());
+		assertEquals("Array>>foo", cache.lookup("Array", c -> null));
+		cache.lookup("Character", c -> c+">>foo");
+		assertEquals(InlineCache.State.MEGAMORPHIC, cache.getState());
+		assertEquals("Integer>>foo", cache.lookup("Integer", c -> c+">>foo"));
+		assertEquals(2, cache.getHits());
+		assertEquals(6, cache.getMisses());
+	}
+
+	@Test public void testInlineCacheDoesNotCacheMissingMethod() {
+		InlineCache<String,String> cache = new InlineCache<>();
+		assertNull(cache.lookup("Integer", c -> null));
+		assertEquals(InlineCache.State.EMPTY, cache.getState());
+	}
+
+	public STCompiledBlock compileMain(String input) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("Main.st", input);
+		STClass mainClass = (STClass)symtab.GLOBALS.resolve("MainClass");
+		return mainClass.resolveMethod("main").compiledBlock;
+	}
+}
@@ -0,0 +1,108 @@
+package smalltalk.compiler.test;
+
+import org.antlr.v4.runtime.misc.Utils;
+import org.junit.Test;
+import smalltalk.compiler.Bytecode;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestTailSends {
+	static final String loop =
+		"class T [\n" +
+		"    loop: n [ ^n > 0 ifTrue: [self loop: n - 1] ]\n" +
+		"    notTail [ self foo. ^self ]\n" +
+		"    superTail [ ^super foo ]\n" +
+		"]\n";
+
+	@Test public void testOffByDefault() {
+		STClass T = compile(loop, false, false);
+		assertEquals(0, count(T.resolveMethod("loop:").compiledBlock, Bytecode.TAIL_SEND));
+	}
+
+	@Test public void testMethodAndBlockTailSends() {
+		STClass T = compile(loop, true, false);
+		STCompiledBlock loopMethod = T.resolveMethod("loop:").compiledBlock;
+		// ifTrue: in the method, loop: in the block; > and - aren't in tail position
+		assertEquals(1, count(loopMethod, Bytecode.TAIL_SEND));
+		assertEquals(1, count(loopMethod, Bytecode.SEND));
+		assertEquals(1, count(loopMethod.blocks[0], Bytecode.TAIL_SEND));
+		assertEquals(1, count(loopMethod.blocks[0], Bytecode.SEND));
+		// tail sends are still send sites
+		assertEquals(2, loopMethod.sendSites.length);
+	}
+
+	@Test public void testNotTail() {
+		STClass T = compile(loop, true, false);
+		assertEquals(0, count(T.resolveMethod("notTail").compiledBlock, Bytecode.TAIL_SEND));
+		assertEquals(0, count(T.resolveMethod("superTail").compiledBlock, Bytecode.TAIL_SEND));
+	}
+
+	@Test public void testTailSendAcrossDbg() {
+		STClass T = compile(loop, true, true);
+		STCompiledBlock loopMethod = T.resolveMethod("loop:").compiledBlock;
+		assertEquals(1, count(loopMethod.blocks[0], Bytecode.TAIL_SEND));
+	}
+
+	@Test public void testNotWhenContextEscapes() {
+		String input =
+			"class T [\n" +
+			"    find: x [ ^x ifTrue: [^1] ]\n" +
+			"]\n";
+		STCompiledBlock find = compile(input, true, false).resolveMethod("find:").compiledBlock;
+		assertEquals(0, count(find, Bytecode.TAIL_SEND));
+	}
+
+	@Test public void testNotForReturnFromBlock() {
+		String input =
+			"class T [\n" +
+			"    each: x [ x do: [:y | ^y bar]. ^nil ]\n" +
+			"]\n";
+		STCompiledBlock each = compile(input, true, false).resolveMethod("each:").compiledBlock;
+		// ^y bar returns from each:, not from the block
+		assertEquals(0, count(each.blocks[0], Bytecode.TAIL_SEND));
+		assertEquals(1, count(each.blocks[0], Bytecode.SEND));
+	}
+
+	@Test public void testImageLoopsAreTailRecursive() throws Exception {
+		URL image = Thread.currentThread().getContextClassLoader().getResource("image.st");
+		Compiler c = new Compiler();
+		c.genTailSends = true;
+		STSymbolTable symtab = c.compile("image.st", new String(Utils.readFile(image.getFile())));
+		assertEquals(Collections.emptyList(), c.errors);
+		STClass integer = (STClass)symtab.GLOBALS.resolve("Integer");
+		STCompiledBlock loop = integer.resolveMethod("privateTo:do:").compiledBlock;
+		assertEquals(1, count(loop, Bytecode.TAIL_SEND)); // ifTrue:
+		assertEquals(1, count(loop.blocks[0], Bytecode.TAIL_SEND)); // privateTo:do:
+		STClass block = (STClass)symtab.GLOBALS.resolve("BlockDescriptor");
+		STCompiledBlock whileTrue = block.resolveMethod("whileTrue:").compiledBlock;
+		assertEquals(1, count(whileTrue, Bytecode.TAIL_SEND)); // ifTrue:
+		assertEquals(1, count(whileTrue.blocks[0], Bytecode.TAIL_SEND)); // whileTrue:
+	}
+
+	public STClass compile(String input, boolean tail, boolean dbg) {
+		Compiler c = new Compiler();
+		c.genTailSends = tail;
+		c.genDbg = dbg;
+		STSymbolTable symtab = c.compile("T.st", input);
+		assertEquals(Collections.emptyList(), c.errors);
+		return (STClass)symtab.GLOBALS.resolve("T");
+	}
+
+	public static int count(STCompiledBlock blk, int opcode) {
+		int n = 0;
+		int ip = 0;
+		while ( ip<blk.bytecode.length ) {
+			if ( blk.bytecode[ip]==opcode ) n++;
+			ip += Bytecode.sizeOfInstruction(blk.bytecode[ip]);
+		}
+		return n;
+	}
+}
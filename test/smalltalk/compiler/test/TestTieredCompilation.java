@@ -0,0 +1,184 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.runtime.JITClassLoader;
+import smalltalk.compiler.runtime.JVMTranslator;
+import smalltalk.compiler.runtime.SendCallSite;
+import smalltalk.compiler.runtime.TieredCompilation;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STCompiledBlock;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestTieredCompilation {
+	@Test public void testTranslatedAtThreshold() throws Throwable {
+		MethodHandle fast = MethodHandles.constant(String.class, "fast");
+		int[] translations = new int[1];
+		TieredCompilation<String> tiers =
+			new TieredCompilation<>((m, loader) -> { translations[0]++; return fast; }, 3);
+		TieredCompilation<String>.Counter c = tiers.counterFor("Integer>>to:do:");
+		assertNull(c.invoked());
+		assertNull(c.invoked());
+		assertSame(fast, c.invoked());
+		assertSame(fast, c.invoked());
+		assertTrue(c.isCompiled());
+		assertEquals(1, translations[0]);
+		assertEquals(1, tiers.getNumberTranslated());
+		assertEquals("fast", (String)c.invoked().invokeExact());
+	}
+
+	@Test public void testUntranslatableNotRetried() {
+		int[] translations = new int[1];
+		TieredCompilation<String> tiers =
+			new TieredCompilation<>((m, loader) -> { translations[0]++; return null; }, 1);
+		TieredCompilation<String>.Counter c = tiers.counterFor("Object>>print");
+		assertNull(c.invoked());
+		assertNull(c.invoked());
+		assertFalse(c.isCompiled());
+		assertEquals(1, translations[0]);
+		assertEquals(1, tiers.getNumberFailed());
+	}
+
+	@Test public void testCounterPerMethod() {
+		TieredCompilation<String> tiers = new TieredCompilation<>((m, loader) -> null);
+		assertSame(tiers.counterFor("a"), tiers.counterFor("a"));
+		assertEquals(TieredCompilation.DEFAULT_THRESHOLD, tiers.getThreshold());
+	}
+
+	static final String program =
+		"class T [\n" +
+		"    |f|\n" +
+		"    calc: x [ |y| y := x + 1. ^y * 2 ]\n" +
+		"    size [ ^'abc' size ]\n" +
+		"    answer [ ^nil isNil ]\n" +
+		"    field [ ^f ]\n" +
+		"    block [ ^[1] value ]\n" +
+		"]\n";
+
+	/** Sends a few selectors to Java values, as a VM might for primitives */
+	static class JavaLinker extends SendCallSite.Linker {
+		@Override
+		public Object classOf(Object receiver) { return receiver==null ? Void.class : receiver.getClass(); }
+
+		@Override
+		public MethodHandle lookup(Object cls, String selector, MethodType type) {
+			try {
+				MethodType binary = MethodType.genericMethodType(2);
+				MethodType unary = MethodType.genericMethodType(1);
+				switch ( selector ) {
+					case "+" : return MethodHandles.lookup().findStatic(TestTieredCompilation.class, "add", binary);
+					case "*" : return MethodHandles.lookup().findStatic(TestTieredCompilation.class, "mul", binary);
+					case "size" : return MethodHandles.lookup().findStatic(TestTieredCompilation.class, "size", unary);
+					case "isNil" : return MethodHandles.lookup().findStatic(TestTieredCompilation.class, "isNil", unary);
+				}
+			}
+			catch (ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+			return null;
+		}
+
+		@Override
+		public Object doesNotUnderstand(String selector, Object[] args) { return "dnu "+selector; }
+	}
+
+	static Object add(Object a, Object b) { return (Integer)a+(Integer)b; }
+	static Object mul(Object a, Object b) { return (Integer)a*(Integer)b; }
+	static Object size(Object s) { return ((String)s).length(); }
+	static Object isNil(Object o) { return o==null; }
+
+	@Test public void testRunTranslatedMethods() throws Throwable {
+		STClass T = compile(program);
+		TieredCompilation<STCompiledBlock> tiers = new TieredCompilation<>(new JVMTranslator(), new JavaLinker(), 2);
+		TieredCompilation<STCompiledBlock>.Counter calc = tiers.counterFor(T.resolveMethod("calc:").compiledBlock);
+		assertNull(calc.invoked());
+		MethodHandle h = calc.invoked();
+		assertEquals(8, h.invoke("self", 3));
+		assertEquals(22, h.invoke("self", 10));
+		assertEquals(3, run(tiers, T, "size"));
+		assertEquals(true, run(tiers, T, "answer"));
+		assertEquals(3, tiers.getNumberTranslated());
+	}
+
+	@Test public void testLinkerPerLoader() throws Throwable {
+		STClass T = compile(program);
+		JavaLinker other = new JavaLinker() {
+			@Override
+			public MethodHandle lookup(Object cls, String selector, MethodType type) {
+				return MethodHandles.dropArguments(MethodHandles.constant(Object.class, 42), 0, Object.class);
+			}
+		};
+		TieredCompilation<STCompiledBlock> mine = new TieredCompilation<>(new JVMTranslator(), new JavaLinker(), 1);
+		TieredCompilation<STCompiledBlock> theirs = new TieredCompilation<>(new JVMTranslator(), other, 1);
+		assertEquals(42, run(theirs, T, "size"));
+		assertEquals(3, run(mine, T, "size"));
+	}
+
+	@Test public void testConcurrentTierUp() throws Exception {
+		MethodHandle fast = MethodHandles.constant(String.class, "fast");
+		TieredCompilation<Integer> tiers =
+			new TieredCompilation<>((m, loader) -> m%2==0 ? fast : null, 1);
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t<8; t++) {
+			int first = t*500;
+			threads.add(new Thread(() -> {
+				for (int m = first; m<first+500; m++) tiers.counterFor(m).invoked();
+			}));
+		}
+		for (Thread t : threads) t.start();
+		for (Thread t : threads) t.join();
+		assertEquals(2000, tiers.getNumberTranslated());
+		assertEquals(2000, tiers.getNumberFailed());
+	}
+
+	@Test public void testNotTranslated() {
+		STClass T = compile(program);
+		JVMTranslator translator = new JVMTranslator();
+		JITClassLoader loader = new JITClassLoader(getClass().getClassLoader());
+		assertNull(translator.translate(T.resolveMethod("field").compiledBlock, loader));
+		assertNull(translator.translate(T.resolveMethod("block").compiledBlock, loader));
+		assertNull(translator.translate(T.resolveMethod("block").compiledBlock.blocks[0], loader));
+	}
+
+	@Test public void testDiscardTranslations() {
+		List<JITClassLoader> loaders = new ArrayList<>();
+		MethodHandle fast = MethodHandles.constant(String.class, "fast");
+		TieredCompilation<String> tiers =
+			new TieredCompilation<>((m, loader) -> { loaders.add(loader); return fast; }, 1);
+		TieredCompilation<String>.Counter c = tiers.counterFor("Integer>>to:do:");
+		assertSame(fast, c.invoked());
+		tiers.discardTranslations();
+		assertFalse(c.isCompiled());
+		assertEquals(0, c.getInvocations());
+		assertSame(fast, c.invoked());
+		assertEquals(2, loaders.size());
+		assertNotSame(loaders.get(0), loaders.get(1));
+	}
+
+	static Object run(TieredCompilation<STCompiledBlock> tiers, STClass cls, String selector) throws Throwable {
+		TieredCompilation<STCompiledBlock>.Counter c = tiers.counterFor(cls.resolveMethod(selector).compiledBlock);
+		MethodHandle h;
+		do { h = c.invoked(); } while ( h==null );
+		return h.invoke("self");
+	}
+
+	static STClass compile(String input) {
+		Compiler c = new Compiler();
+		STSymbolTable symtab = c.compile("T.st", input);
+		assertEquals(0, c.errors.size());
+		return (STClass)symtab.GLOBALS.resolve("T");
+	}
+}
@@ -0,0 +1,117 @@
+package smalltalk.compiler.test;
+
+import org.junit.Test;
+import smalltalk.compiler.Compiler;
+import smalltalk.compiler.STC;
+import smalltalk.compiler.TreeShaker;
+import smalltalk.compiler.symbols.STClass;
+import smalltalk.compiler.symbols.STSymbolTable;
+
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestTreeShaker {
+	static final String program =
+		"class Unused [ foo [ ^1 ] ]\n" +
+		"class Used [\n" +
+		"    bar [ ^Array new: 3 ]\n" +
+		"    baz [ ^2 ]\n" +
+		"]\n" +
+		"class Sub : Used [ baz [ ^3 ] ]\n" +
+		"class Lazy [ go [ ^Sub new ] ]\n" +
+		"Used new bar.\n" +
+		"[:x | Lazy new go] value: 1.\n";
+
+	@Test public void testReachability() {
+		TreeShaker shaker = shake(program);
+		assertEquals(Arrays.asList("Unused"), dropped(shaker.getDroppedClasses(), "Unused", "Sub", "Used", "Lazy"));
+		// go is sent from a block in main, and Lazy>>go pushes Sub
+		assertTrue(shaker.reachableClasses.containsAll(Arrays.asList("Lazy", "Sub")));
+		assertTrue(shaker.getDroppedMethods().contains("Used>>baz"));
+		assertFalse(shaker.getDroppedMethods().contains("Used>>bar"));
+		assertFalse(shaker.getDroppedMethods().contains("Object>>initialize")); // sent by the VM
+		assertTrue(shaker.getDroppedClasses().containsAll(Arrays.asList("ReadStream", "Semaphore", "Delay")));
+		assertTrue(shaker.reachableClasses.containsAll(Arrays.asList("Collection", "Stream", "BlockDescriptor")));
+	}
+
+	@Test public void testSelectorMakesEarlierClassReachable() {
+		TreeShaker shaker = shake(
+			"class A [ a [ ^B new b ] ]\n" +
+			"class B [ b [ ^C new c ] ]\n" +
+			"class C [ c [ ^1 ] ]\n" +
+			"A new a.\n");
+		assertTrue(shaker.reachableClasses.containsAll(Arrays.asList("A", "B", "C")));
+		assertFalse(shaker.getDroppedMethods().contains("C>>c"));
+	}
+
+	@Test public void testNoMain() {
+		STSymbolTable symtab = new Compiler().compile("T.st", "class T [ foo [ ^1 ] ]");
+		TreeShaker shaker = new TreeShaker(symtab);
+		assertFalse(shaker.shake());
+	}
+
+	@Test public void testWriteObjectFiles() throws Exception {
+		STSymbolTable symtab = compile(program);
+		TreeShaker shaker = new TreeShaker(symtab);
+		shaker.shake();
+		Path dir = Files.createTempDirectory("shake");
+		try {
+			STC.writeObjectFiles(dir.toString(), "t.st", symtab, shaker);
+			List<String> files;
+			try (Stream<Path> paths = Files.list(dir)) {
+				files = paths.map(p -> p.getFileName().toString()).collect(Collectors.toList());
+			}
+			assertTrue(files.contains("Used.sto"));
+			assertFalse(files.contains("Unused.sto"));
+			assertFalse(files.contains("ReadStream.sto"));
+			JsonObject used = ((STClass) symtab.GLOBALS.resolve("Used")).serialize(shaker::isReachable);
+			List<String> methods = new ArrayList<>();
+			for (JsonValue m : used.getJsonArray("methods")) {
+				methods.add(((JsonObject) m).getString("name"));
+			}
+			assertEquals(Collections.singletonList("bar"), methods);
+		}
+		finally {
+			try (Stream<Path> paths = Files.list(dir)) {
+				for (Path p : paths.collect(Collectors.toList())) Files.delete(p);
+			}
+			Files.delete(dir);
+		}
+	}
+
+	static TreeShaker shake(String input) {
+		TreeShaker shaker = new TreeShaker(compile(input));
+		assertTrue(shaker.shake());
+		return shaker;
+	}
+
+	/** Compile input together with the image, as a whole program */
+	static STSymbolTable compile(String input) {
+		STSymbolTable symtab = STC.compile("image.st", false);
+		Compiler c = new Compiler(symtab);
+		c.compile("t.st", input);
+		assertEquals(Collections.emptyList(), c.errors);
+		return symtab;
+	}
+
+	/** Return the members of of that are in dropped, in order */
+	static List<String> dropped(List<String> dropped, String... of) {
+		List<String> result = new ArrayList<>();
+		for (String d : dropped) {
+			if ( Arrays.asList(of).contains(d) ) result.add(d);
+		}
+		return result;
+	}
+}